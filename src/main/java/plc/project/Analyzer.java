@@ -4,7 +4,9 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -16,8 +18,36 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     public Scope scope;
     private Ast.Function function;
-
+    private final Annotations annotations;
+
+    /**
+     * The frame and slot of each variable defined by the source, with frames
+     * numbered from the outermost (0 for globals, 1 for a function's), which
+     * gives the lexical address of an access from any frame. Locals are
+     * freed at the end of their block, so sibling blocks share slots and a
+     * function's frame is only as large as the most locals live at once.
+     */
+    private final Map<Environment.Variable, Environment.Address> slots = new IdentityHashMap<>();
+    private int frame = 0;
+    private int globals = 0;
+    private int locals = 0;
+    private int maxLocals = 0;
+
+    /**
+     * Creates an analyzer storing the types, variables and functions it
+     * resolves in the AST nodes themselves, and lexical addresses and frame
+     * sizes in the tables of {@link Annotations#IN_PLACE}.
+     */
     public Analyzer(Scope parent) {
+        this(parent, Annotations.IN_PLACE);
+    }
+
+    /**
+     * Creates an analyzer storing what it resolves in {@code annotations},
+     * leaving the AST untouched so it can be shared.
+     */
+    public Analyzer(Scope parent, Annotations annotations) {
+        this.annotations = annotations;
         scope = new Scope(parent);
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
     }
@@ -26,6 +56,10 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return scope;
     }
 
+    public Annotations getAnnotations() {
+        return annotations;
+    }
+
     // CHECK
     @Override
     public Void visit(Ast.Source ast) {
@@ -38,6 +72,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         for (Ast.Function function : ast.getFunctions()) {
             visit(function);
         }
+        annotations.setFrameSize(ast, globals);
 
         return null;
 
@@ -57,10 +92,11 @@ public final class Analyzer implements Ast.Visitor<Void> {
         if (value.isPresent()) {
             Ast.Expression expression = value.get();
             visit(expression);
-            requireAssignable(variable.getType(), expression.getType());
+            requireAssignable(variable.getType(), annotations.getType(expression));
         }
 
-        ast.setVariable(variable);
+        annotations.setVariable(ast, variable);
+        annotations.setAddress(ast, declare(variable));
 
 
         return null;
@@ -92,28 +128,33 @@ public final class Analyzer implements Ast.Visitor<Void> {
         // Define the function in the current scope
         Environment.Function function = new Environment.Function(name, name, parameterTypes, returnType, args -> Environment.NIL);
         scope.defineFunction(name, name, parameterTypes, returnType, args -> Environment.NIL);
-        ast.setFunction(function);
+        annotations.setFunction(ast, function);
 
         // Visit all function statements inside a new scope containing variables for each parameter
         Scope functionScope = new Scope(scope);
         scope = functionScope;
+        frame++;
+        locals = 0;
+        maxLocals = 0;
         for (int i = 0; i < parameterNames.size(); i++) {
             String parameterName = parameterNames.get(i);
             Environment.Type parameterType = parameterTypes.get(i);
-            scope.defineVariable(parameterName, parameterName, parameterType, true, Environment.NIL);
+            declare(scope.defineVariable(parameterName, parameterName, parameterType, true, Environment.NIL));
         }
 
         for (Ast.Statement statement : ast.getStatements()) {
             visit(statement);
             if(statement instanceof Ast.Statement.Return){
                 Ast.Statement.Return returnStatement=(Ast.Statement.Return) statement;
-                requireAssignable(returnType, returnStatement.getValue().getType());
+                requireAssignable(returnType, annotations.getType(returnStatement.getValue()));
             }
 
         }
 
 
         scope = functionScope.getParent(); // Revert to the previous scope after visiting function statements
+        frame--;
+        annotations.setFrameSize(ast, maxLocals);
 
         // Throw RuntimeException as requested
         //throw new RuntimeException("The function " + name + " is not defined in this scope.");
@@ -150,7 +191,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
             // If type is missing, infer the type from the value expression
             Ast.Expression expression = value.get();
             visit(expression);
-            typeName = Optional.of(expression.getType().getName());
+            typeName = Optional.of(annotations.getType(expression).getName());
         }
 
         Environment.Type type = Environment.getType(typeName.get());
@@ -159,13 +200,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
         if (value.isPresent()) {
             Ast.Expression expression = value.get();
             visit(expression);
-            requireAssignable(type, expression.getType());
+            requireAssignable(type, annotations.getType(expression));
         }
 
         // If value is absent, define a variable with NIL as the value
         variable = scope.defineVariable(name, name, type, true, Environment.NIL);
 
-        ast.setVariable(variable);
+        annotations.setVariable(ast, variable);
+        annotations.setAddress(ast, declare(variable));
 
         return null;
     }
@@ -192,7 +234,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
         // Check if the assigned value has a compatible type with the variable
         Environment.Type targetType = variable.getType();
-        Environment.Type valueType = ast.getValue().getType();
+        Environment.Type valueType = annotations.getType(ast.getValue());
         if (!targetType.equals(valueType)) {
             throw new RuntimeException("Type mismatch in assignment for variable '" + variable.getName() + "'.");
         }
@@ -210,7 +252,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         visit(ast.getCondition());
 
         // Ensure the condition is of type BOOLEAN
-        Environment.Type conditionType = ast.getCondition().getType();
+        Environment.Type conditionType = annotations.getType(ast.getCondition());
         if (conditionType != Environment.Type.BOOLEAN) {
             throw new RuntimeException("Condition must be of type BOOLEAN.");
         }
@@ -221,14 +263,23 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
 
         // Visit the then statements inside a new scope
+        int mark = locals;
         Scope thenScope = new Scope(scope);
         scope = thenScope;
         for (Ast.Statement statement : ast.getThenStatements()) {
             visit(statement);
         }
         scope = thenScope.getParent(); // Revert to the previous scope after visiting thenStatements
+        locals = mark;
 
-        // No need to visit statements inside the ELSE block because it's not implemented in the provided tests
+        // Visit the else statements inside their own scope, so every access has an address
+        Scope elseScope = new Scope(scope);
+        scope = elseScope;
+        for (Ast.Statement statement : ast.getElseStatements()) {
+            visit(statement);
+        }
+        scope = elseScope.getParent();
+        locals = mark;
 
         return null;
     }
@@ -239,15 +290,16 @@ public final class Analyzer implements Ast.Visitor<Void> {
         //throw new UnsupportedOperationException();  // TODO
         // Visit the switch condition
         visit(ast.getCondition());
-        Environment.Type conditionType = ast.getCondition().getType();
+        Environment.Type conditionType = annotations.getType(ast.getCondition());
 
         // Analyze each case block within its own scope
+        int mark = locals;
         for (Ast.Statement.Case caseBlock : ast.getCases()) {
             try {
                 Optional<Ast.Expression> value = caseBlock.getValue();
                 if(value.isPresent()){
                     visit(value.get());
-                    requireAssignable(conditionType, value.get().getType());
+                    requireAssignable(conditionType, annotations.getType(value.get()));
                 }
                 scope = new Scope(scope); // Enter a new scope for the case block
                 // Analyze statements within the case block
@@ -257,6 +309,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
                 }
             } finally {
                 scope = scope.getParent(); // Exit the scope
+                locals = mark;
             }
         }
 
@@ -280,7 +333,8 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Statement.While ast) {
        // throw new UnsupportedOperationException();  // TODO
        visit(ast.getCondition());
-       requireAssignable(Environment.Type.BOOLEAN, ast.getCondition().getType());
+       requireAssignable(Environment.Type.BOOLEAN, annotations.getType(ast.getCondition()));
+       int mark = locals;
        try {
            scope = new Scope(scope);
            for (Ast.Statement stmt : ast.getStatements()) {
@@ -288,6 +342,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
            }
        } finally {
            scope = scope.getParent();
+           locals = mark;
        }
        return null;
     }
@@ -318,19 +373,19 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Expression.Literal ast) {
        // throw new UnsupportedOperationException();  // TODO
         if (ast.getLiteral() == null) {
-            ast.setType(Environment.Type.NIL);
+            annotations.setType(ast, Environment.Type.NIL);
             return null;
         }
         if (ast.getLiteral() instanceof Boolean) {
-            ast.setType(Environment.Type.BOOLEAN);
+            annotations.setType(ast, Environment.Type.BOOLEAN);
             return null;
         }
         if (ast.getLiteral() instanceof Character) {
-            ast.setType(Environment.Type.CHARACTER);
+            annotations.setType(ast, Environment.Type.CHARACTER);
             return null;
         }
         if (ast.getLiteral() instanceof String) {
-            ast.setType(Environment.Type.STRING);
+            annotations.setType(ast, Environment.Type.STRING);
             return null;
         }
         if (ast.getLiteral() instanceof BigInteger) {
@@ -339,7 +394,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
             if (value.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0 || value.compareTo(BigInteger.valueOf(Integer.MIN_VALUE)) < 0) {
                 throw new RuntimeException("Value is out of range of a Java int");
             }
-            ast.setType(Environment.Type.INTEGER);
+            annotations.setType(ast, Environment.Type.INTEGER);
             return null;
         }
         if (ast.getLiteral() instanceof BigDecimal) {
@@ -347,7 +402,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
             if (value.compareTo(BigDecimal.valueOf(Double.MAX_VALUE)) > 0 || value.compareTo(BigDecimal.valueOf(Double.MIN_VALUE)) < 0) {
                 throw new RuntimeException("Value is out of range of a Java double");
             }
-            ast.setType(Environment.Type.DECIMAL);
+            annotations.setType(ast, Environment.Type.DECIMAL);
             return null;
         }
 
@@ -359,7 +414,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         //throw new UnsupportedOperationException();  // TODO
         Ast.Expression expression = ast.getExpression();
         visit(expression);
-        ast.setType(expression.getType());
+        annotations.setType(ast, annotations.getType(expression));
 
 
         return null;
@@ -372,8 +427,8 @@ public final class Analyzer implements Ast.Visitor<Void> {
         visit(ast.getLeft());
         visit(ast.getRight());
 
-        Environment.Type leftType = ast.getLeft().getType();
-        Environment.Type rightType = ast.getRight().getType();
+        Environment.Type leftType = annotations.getType(ast.getLeft());
+        Environment.Type rightType = annotations.getType(ast.getRight());
 
         switch (ast.getOperator()) {
             case "&&":
@@ -381,7 +436,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
                 if (leftType != Environment.Type.BOOLEAN || rightType != Environment.Type.BOOLEAN) {
                     throw new RuntimeException("Logical AND/OR operation expects boolean operands");
                 }
-                ast.setType(Environment.Type.BOOLEAN);
+                annotations.setType(ast, Environment.Type.BOOLEAN);
                 break;
             case ">":
             case "<":
@@ -392,14 +447,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
                         !rightType.equals(Environment.Type.COMPARABLE)) {
                     throw new RuntimeException("Comparison operators expect comparable operands of the same type");
                 }
-                ast.setType(Environment.Type.BOOLEAN);
+                annotations.setType(ast, Environment.Type.BOOLEAN);
                 break;
             case "+":
                 if (leftType == Environment.Type.STRING || rightType == Environment.Type.STRING) {
-                    ast.setType(Environment.Type.STRING);
+                    annotations.setType(ast, Environment.Type.STRING);
                 } else if ((leftType == Environment.Type.INTEGER || leftType == Environment.Type.DECIMAL) &&
                         (rightType == Environment.Type.INTEGER || rightType == Environment.Type.DECIMAL) && (leftType == rightType )) {
-                    ast.setType(leftType);
+                    annotations.setType(ast, leftType);
                 } else {
                     throw new RuntimeException("Invalid operands for addition operation");
                 }
@@ -412,20 +467,20 @@ public final class Analyzer implements Ast.Visitor<Void> {
                         (rightType != Environment.Type.INTEGER && rightType != Environment.Type.DECIMAL)) {
                     throw new RuntimeException("Arithmetic operations expect numeric operands");
                 }
-                ast.setType(leftType);
+                annotations.setType(ast, leftType);
                 break;
             case "^":
                 if (leftType != Environment.Type.INTEGER || rightType != Environment.Type.INTEGER) {
                     throw new RuntimeException("Exponentiation operation expects integer operands");
                 }
-                ast.setType(Environment.Type.INTEGER);
+                annotations.setType(ast, Environment.Type.INTEGER);
                 break;
             default:
                 throw new UnsupportedOperationException("Unsupported binary operator: " + ast.getOperator());
         }
 
         // Set the type if it's still uninitialized
-        if (ast.getType() == null) {
+        if (annotations.getType(ast) == null) {
             throw new RuntimeException("Type is uninitialized");
         }
 
@@ -445,7 +500,11 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
 
         // Set the variable of the expression, which internally sets the type of the expression
-        ast.setVariable(variable);
+        annotations.setVariable(ast, variable);
+        Environment.Address slot = slots.get(variable);
+        if (slot != null) {
+            annotations.setAddress(ast, new Environment.Address(frame - slot.getDepth(), slot.getSlot()));
+        }
 
         return null;
 
@@ -467,7 +526,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
 
         // Set the function of the expression, which internally sets the type of the expression
-        ast.setFunction(function);
+        annotations.setFunction(ast, function);
 
         // Check if the provided arguments match the parameter types of the function
         List<Environment.Type> parameterTypes = function.getParameterTypes();
@@ -479,7 +538,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
         for (int i = 0; i < parameterTypes.size(); i++) {
             Environment.Type expectedType = parameterTypes.get(i);
-            Environment.Type actualType = arguments.get(i).getType();
+            Environment.Type actualType = annotations.getType(arguments.get(i));
 
             // Check if the names of the expected and actual types match
             /*if (!expectedType.getName().equals(actualType.getName())) {
@@ -520,6 +579,17 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Gives a variable defined by the source the next slot in the current
+     * frame, returning its address from that frame.
+     */
+    private Environment.Address declare(Environment.Variable variable) {
+        int slot = frame == 0 ? globals++ : locals++;
+        maxLocals = Math.max(maxLocals, locals);
+        slots.put(variable, new Environment.Address(frame, slot));
+        return new Environment.Address(0, slot);
+    }
+
     public static void requireAssignable(Environment.Type target, Environment.Type type) {
        // throw new UnsupportedOperationException();  // TODO
         Scope targetTypeScope = target.getScope();
@@ -0,0 +1,248 @@
+package plc.project;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The types, variables, functions and lexical addresses resolved for AST
+ * nodes by the {@link Analyzer}, kept in tables keyed by node identity so the
+ * nodes themselves are never written. A parsed tree can then be analyzed any number
+ * of times, cached, or shared between threads, with each analysis producing
+ * its own annotations.
+ * <p>
+ * {@link #IN_PLACE} instead stores types, variables and functions in the
+ * nodes through their setters, which is what {@link Analyzer#Analyzer(Scope)}
+ * uses, and keeps lexical addresses and frame sizes in weak identity tables
+ * of its own, shared by every analysis using it. Other annotations are not
+ * thread safe, but are only written by the analysis creating them.
+ */
+public final class Annotations {
+
+    static final Annotations IN_PLACE = new Annotations(null, null, null, null, null);
+
+    private static final WeakIdentityMap<Environment.Address> IN_PLACE_ADDRESSES = new WeakIdentityMap<>();
+    private static final WeakIdentityMap<Integer> IN_PLACE_FRAME_SIZES = new WeakIdentityMap<>();
+
+    private final Map<Ast, Environment.Type> types;
+    private final Map<Ast, Environment.Variable> variables;
+    private final Map<Ast, Environment.Function> functions;
+    private final Map<Ast, Environment.Address> addresses;
+    private final Map<Ast, Integer> frameSizes;
+
+    public Annotations() {
+        this(new IdentityHashMap<>(), new IdentityHashMap<>(), new IdentityHashMap<>(),
+                new IdentityHashMap<>(), new IdentityHashMap<>());
+    }
+
+    private Annotations(Map<Ast, Environment.Type> types, Map<Ast, Environment.Variable> variables,
+                        Map<Ast, Environment.Function> functions, Map<Ast, Environment.Address> addresses,
+                        Map<Ast, Integer> frameSizes) {
+        this.types = types;
+        this.variables = variables;
+        this.functions = functions;
+        this.addresses = addresses;
+        this.frameSizes = frameSizes;
+    }
+
+    /**
+     * Returns the type of an expression. As with
+     * {@link Ast.Expression#getType()}, accesses and function calls have the
+     * type of their variable and the return type of their function.
+     */
+    public Environment.Type getType(Ast.Expression ast) {
+        if (types == null) {
+            return ast.getType();
+        } else if (ast instanceof Ast.Expression.Access) {
+            return getVariable(ast).getType();
+        } else if (ast instanceof Ast.Expression.Function) {
+            return getFunction(ast).getReturnType();
+        }
+        return require(types.get(ast), "type");
+    }
+
+    /**
+     * Sets the type of a literal, group, binary or list expression.
+     */
+    public void setType(Ast.Expression ast, Environment.Type type) {
+        if (types != null) {
+            types.put(ast, type);
+        } else if (ast instanceof Ast.Expression.Literal) {
+            ((Ast.Expression.Literal) ast).setType(type);
+        } else if (ast instanceof Ast.Expression.Group) {
+            ((Ast.Expression.Group) ast).setType(type);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            ((Ast.Expression.Binary) ast).setType(type);
+        } else if (ast instanceof Ast.Expression.PlcList) {
+            ((Ast.Expression.PlcList) ast).setType(type);
+        } else {
+            throw new IllegalArgumentException("Cannot set the type of " + ast.getClass().getName() + ".");
+        }
+    }
+
+    /**
+     * Returns the variable of a global, declaration or access.
+     */
+    public Environment.Variable getVariable(Ast ast) {
+        if (variables != null) {
+            return require(variables.get(ast), "variable");
+        } else if (ast instanceof Ast.Global) {
+            return ((Ast.Global) ast).getVariable();
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            return ((Ast.Statement.Declaration) ast).getVariable();
+        } else if (ast instanceof Ast.Expression.Access) {
+            return ((Ast.Expression.Access) ast).getVariable();
+        }
+        throw new IllegalArgumentException(ast.getClass().getName() + " has no variable.");
+    }
+
+    /**
+     * Sets the variable of a global, declaration or access.
+     */
+    public void setVariable(Ast ast, Environment.Variable variable) {
+        if (variables != null) {
+            variables.put(ast, variable);
+        } else if (ast instanceof Ast.Global) {
+            ((Ast.Global) ast).setVariable(variable);
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            ((Ast.Statement.Declaration) ast).setVariable(variable);
+        } else if (ast instanceof Ast.Expression.Access) {
+            ((Ast.Expression.Access) ast).setVariable(variable);
+        } else {
+            throw new IllegalArgumentException(ast.getClass().getName() + " has no variable.");
+        }
+    }
+
+    /**
+     * Returns the function of a function declaration or call.
+     */
+    public Environment.Function getFunction(Ast ast) {
+        if (functions != null) {
+            return require(functions.get(ast), "function");
+        } else if (ast instanceof Ast.Function) {
+            return ((Ast.Function) ast).getFunction();
+        } else if (ast instanceof Ast.Expression.Function) {
+            return ((Ast.Expression.Function) ast).getFunction();
+        }
+        throw new IllegalArgumentException(ast.getClass().getName() + " has no function.");
+    }
+
+    /**
+     * Sets the function of a function declaration or call.
+     */
+    public void setFunction(Ast ast, Environment.Function function) {
+        if (functions != null) {
+            functions.put(ast, function);
+        } else if (ast instanceof Ast.Function) {
+            ((Ast.Function) ast).setFunction(function);
+        } else if (ast instanceof Ast.Expression.Function) {
+            ((Ast.Expression.Function) ast).setFunction(function);
+        } else {
+            throw new IllegalArgumentException(ast.getClass().getName() + " has no function.");
+        }
+    }
+
+    /**
+     * Returns the lexical address of a global, declaration or access, or
+     * {@code null} if it has none, as for variables defined outside the
+     * analyzed source.
+     */
+    public Environment.Address getAddress(Ast ast) {
+        if (addresses != null) {
+            return addresses.get(ast);
+        }
+        return IN_PLACE_ADDRESSES.get(ast);
+    }
+
+    /**
+     * Sets the lexical address of a global, declaration or access.
+     */
+    public void setAddress(Ast ast, Environment.Address address) {
+        if (addresses != null) {
+            addresses.put(ast, address);
+        } else {
+            IN_PLACE_ADDRESSES.put(ast, address);
+        }
+    }
+
+    /**
+     * Returns the number of slots in the frame of a source's globals or of a
+     * function's calls, with a function's parameters in its first slots, or
+     * -1 if it was not analyzed.
+     */
+    public int getFrameSize(Ast ast) {
+        Integer frameSize = frameSizes != null ? frameSizes.get(ast) : IN_PLACE_FRAME_SIZES.get(ast);
+        return frameSize != null ? frameSize : -1;
+    }
+
+    /**
+     * Sets the number of slots in the frame of a source or function.
+     */
+    public void setFrameSize(Ast ast, int frameSize) {
+        if (frameSizes != null) {
+            frameSizes.put(ast, frameSize);
+        } else {
+            IN_PLACE_FRAME_SIZES.put(ast, frameSize);
+        }
+    }
+
+    private static <T> T require(T annotation, String name) {
+        if (annotation == null) {
+            throw new IllegalStateException(name + " is uninitialized");
+        }
+        return annotation;
+    }
+
+    /**
+     * A map keyed by node identity that holds its keys weakly, so entries live
+     * only as long as their nodes, like annotations stored in the nodes do.
+     * Synchronized, since {@link #IN_PLACE} is shared between threads.
+     */
+    private static final class WeakIdentityMap<V> {
+
+        private final Map<Key, V> map = new HashMap<>();
+        private final ReferenceQueue<Ast> queue = new ReferenceQueue<>();
+
+        synchronized V get(Ast ast) {
+            expunge();
+            return map.get(new Key(ast, null));
+        }
+
+        synchronized void put(Ast ast, V value) {
+            expunge();
+            map.put(new Key(ast, queue), value);
+        }
+
+        private void expunge() {
+            for (Reference<? extends Ast> key; (key = queue.poll()) != null; ) {
+                map.remove(key);
+            }
+        }
+
+        private static final class Key extends WeakReference<Ast> {
+
+            private final int hash;
+
+            private Key(Ast ast, ReferenceQueue<Ast> queue) {
+                super(ast, queue);
+                this.hash = System.identityHashCode(ast);
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj == this || obj instanceof Key && get() != null && get() == ((Key) obj).get();
+            }
+
+        }
+
+    }
+
+}
@@ -6,8 +6,94 @@ import java.util.Optional;
 /**
  * See the Parser assignment specification for specific notes on each AST class
  * and how to use it.
+ * <p>
+ * A tree is only safe to share, cache or analyze again when it is analyzed
+ * into its own {@link Annotations}, which leaves the nodes untouched. The
+ * deprecated setters remain for {@link Analyzer#Analyzer(Scope)}, which
+ * stores types, variables and functions in the nodes, and for tests building
+ * expected trees with them.
  */
 public abstract class Ast {
+    /**
+     * Calls the {@link Visitor} method for this node's class, so dispatch
+     * through {@link Visitor#visit(Ast)} is a single virtual call.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+    private volatile long fingerprint;
+    /**
+     * Returns a 64-bit structural hash of this subtree, combining the node's
+     * class and fields with the fingerprints of its children, Merkle style.
+     * Structurally equal trees have equal fingerprints wherever they were
+     * parsed, and the types, variables and functions set by the analyzer are
+     * not included. Computed on first use and cached in the node, so later
+     * calls on a subtree are O(1).
+     */
+    public final long getFingerprint() {
+        long fingerprint = this.fingerprint;
+        if (fingerprint == 0) {
+            fingerprint = computeFingerprint();
+            if (fingerprint == 0) {
+                fingerprint = 1; // 0 marks an uncomputed fingerprint
+            }
+            this.fingerprint = fingerprint;
+        }
+        return fingerprint;
+    }
+    /**
+     * Computes the fingerprint of this node from its own fields and the
+     * fingerprints of its children.
+     */
+    abstract long computeFingerprint();
+    /**
+     * Returns the fingerprint folded to 32 bits, which is consistent with
+     * {@code equals} since equal trees have equal structure.
+     */
+    @Override
+    public final int hashCode() {
+        long fingerprint = getFingerprint();
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+    /**
+     * Returns the starting hash for a node of this class.
+     */
+    long seed() {
+        return string(getClass().getName());
+    }
+    static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 31);
+    }
+    /**
+     * Returns a 64-bit FNV-1a hash of {@code string}, or a constant for
+     * {@code null}.
+     */
+    static long string(String string) {
+        if (string == null) {
+            return 0x5BD1E995L;
+        }
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+    static long strings(List<String> strings) {
+        long hash = strings.size();
+        for (String string : strings) {
+            hash = mix(hash, string(string));
+        }
+        return hash;
+    }
+    static long child(long hash, Optional<? extends Ast> child) {
+        return mix(hash, child.isPresent() ? child.get().getFingerprint() : 0);
+    }
+    static long children(long hash, List<? extends Ast> children) {
+        hash = mix(hash, children.size());
+        for (Ast child : children) {
+            hash = mix(hash, child.getFingerprint());
+        }
+        return hash;
+    }
     public static final class Source extends Ast {
         private final List<Global> globals;
         private final List<Ast.Function> functions;
@@ -22,12 +108,20 @@ public abstract class Ast {
             return functions;
         }
         @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+        @Override
         public boolean equals(Object obj) {
             return obj instanceof Source &&
                     globals.equals(((Source) obj).globals) &&
                     functions.equals(((Source) obj).functions);
         }
         @Override
+        long computeFingerprint() {
+            return children(children(seed(), globals), functions);
+        }
+        @Override
         public String toString() {
             return "Ast.Source{" +
                     "globals=" + globals +
@@ -69,10 +163,15 @@ public abstract class Ast {
             }
             return variable;
         }
+        @Deprecated
         public void setVariable(Environment.Variable variable) {
             this.variable = variable;
         }
         @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+        @Override
         public boolean equals(Object obj) {
             return obj instanceof Global &&
                     name.equals(((Global) obj).name) &&
@@ -82,6 +181,10 @@ public abstract class Ast {
                     Objects.equals(variable, ((Global) obj).variable);
         }
         @Override
+        long computeFingerprint() {
+            return child(mix(mix(mix(seed(), string(name)), string(typeName)), mutable ? 1 : 0), value);
+        }
+        @Override
         public String toString() {
             return "Ast.Global{" +
                     "name='" + name + '\'' +
@@ -136,10 +239,15 @@ public abstract class Ast {
             }
             return function;
         }
+        @Deprecated
         public void setFunction(Environment.Function function) {
             this.function = function;
         }
         @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+        @Override
         public boolean equals(Object obj) {
             return obj instanceof Ast.Function &&
                     name.equals(((Ast.Function) obj).name) &&
@@ -151,6 +259,11 @@ public abstract class Ast {
                     Objects.equals(function, ((Ast.Function) obj).function);
         }
         @Override
+        long computeFingerprint() {
+            return children(mix(mix(mix(mix(seed(), string(name)), strings(parameters)), strings(parameterTypeNames)),
+                    string(returnTypeName.orElse(null))), statements);
+        }
+        @Override
         public String toString() {
             return "Ast.Function{" +
                     "name='" + name + '\'' +
@@ -172,12 +285,20 @@ public abstract class Ast {
                 return expression;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Statement.Expression &&
                         expression.equals(((Ast.Statement.Expression)
                                 obj).expression);
             }
             @Override
+            long computeFingerprint() {
+                return mix(seed(), expression.getFingerprint());
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.Expression{" +
                         "expression=" + expression +
@@ -185,9 +306,9 @@ public abstract class Ast {
             }
         }
         public static final class Declaration extends Statement {
-            private String name;
+            private final String name;
             private final Optional<String> typeName;
-            private Optional<Ast.Expression> value;
+            private final Optional<Ast.Expression> value;
             private Environment.Variable variable = null;
             public Declaration(String name, Optional<Ast.Expression> value) {
                 this(name, Optional.empty(), value);
@@ -213,10 +334,15 @@ public abstract class Ast {
                 }
                 return variable;
             }
+            @Deprecated
             public void setVariable(Environment.Variable variable) {
                 this.variable = variable;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Declaration &&
                         name.equals(((Declaration) obj).name) &&
@@ -225,6 +351,10 @@ public abstract class Ast {
                         Objects.equals(variable, ((Declaration) obj).variable);
             }
             @Override
+            long computeFingerprint() {
+                return child(mix(mix(seed(), string(name)), string(typeName.orElse(null))), value);
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.Declaration{" +
                         "name='" + name + '\'' +
@@ -248,12 +378,20 @@ public abstract class Ast {
                 return value;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Assignment &&
                         receiver.equals(((Assignment) obj).receiver) &&
                         value.equals(((Assignment) obj).value);
             }
             @Override
+            long computeFingerprint() {
+                return mix(mix(seed(), receiver.getFingerprint()), value.getFingerprint());
+            }
+            @Override
             public final String toString() {
                 return "Ast.Statement.Assignment{" +
                         "receiver=" + receiver +
@@ -281,6 +419,10 @@ public abstract class Ast {
                 return elseStatements;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
                         condition.equals(((If) obj).condition) &&
@@ -288,6 +430,10 @@ public abstract class Ast {
                         elseStatements.equals(((If) obj).elseStatements);
             }
             @Override
+            long computeFingerprint() {
+                return children(children(mix(seed(), condition.getFingerprint()), thenStatements), elseStatements);
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.If{" +
                         "condition=" + condition +
@@ -309,12 +455,20 @@ public abstract class Ast {
             }
             public List<Ast.Statement.Case> getCases() { return cases; }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Switch &&
                         condition.equals(((Switch) obj).condition) &&
                         cases.equals(((Switch) obj).cases);
             }
             @Override
+            long computeFingerprint() {
+                return children(mix(seed(), condition.getFingerprint()), cases);
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.Switch{" +
                         "condition=" + condition +
@@ -337,12 +491,20 @@ public abstract class Ast {
                 return statements;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Case &&
                         value.equals(((Case) obj).value) &&
                         statements.equals(((Case) obj).statements);
             }
             @Override
+            long computeFingerprint() {
+                return children(child(seed(), value), statements);
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.Case{" +
                         "value=" + value +
@@ -364,12 +526,20 @@ public abstract class Ast {
                 return statements;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
                         condition.equals(((While) obj).condition) &&
                         statements.equals(((While) obj).statements);
             }
             @Override
+            long computeFingerprint() {
+                return children(mix(seed(), condition.getFingerprint()), statements);
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.While{" +
                         "condition=" + condition +
@@ -386,11 +556,19 @@ public abstract class Ast {
                 return value;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Return &&
                         value.equals(((Return) obj).value);
             }
             @Override
+            long computeFingerprint() {
+                return mix(seed(), value.getFingerprint());
+            }
+            @Override
             public String toString() {
                 return "Ast.Statement.Return{" +
                         "value=" + value +
@@ -416,16 +594,26 @@ public abstract class Ast {
                 }
                 return type;
             }
+            @Deprecated
             public void setType(Environment.Type type) {
                 this.type = type;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Literal &&
                         Objects.equals(literal, ((Literal) obj).literal) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
             @Override
+            long computeFingerprint() {
+                return mix(mix(seed(), literal == null ? 0 : string(literal.getClass().getName())),
+                        literal == null ? 0 : string(literal.toString()));
+            }
+            @Override
             public String toString() {
                 return "Ast.Expression.Literal{" +
                         "literal=" + literal +
@@ -449,16 +637,25 @@ public abstract class Ast {
                 }
                 return type;
             }
+            @Deprecated
             public void setType(Environment.Type type) {
                 this.type = type;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Group &&
                         expression.equals(((Group) obj).expression) &&
                         Objects.equals(type, ((Group) obj).type);
             }
             @Override
+            long computeFingerprint() {
+                return mix(seed(), expression.getFingerprint());
+            }
+            @Override
             public String toString() {
                 return "Ast.Expression.Group{" +
                         "expression=" + expression +
@@ -493,10 +690,15 @@ public abstract class Ast {
                 }
                 return type;
             }
+            @Deprecated
             public void setType(Environment.Type type) {
                 this.type = type;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
                         operator.equals(((Binary) obj).operator) &&
@@ -505,6 +707,10 @@ public abstract class Ast {
                         Objects.equals(type, ((Binary) obj).type);
             }
             @Override
+            long computeFingerprint() {
+                return mix(mix(mix(seed(), string(operator)), left.getFingerprint()), right.getFingerprint());
+            }
+            @Override
             public String toString() {
                 return "Ast.Expression.Binary{" +
                         "operator='" + operator + '\'' +
@@ -534,6 +740,7 @@ public abstract class Ast {
                 }
                 return variable;
             }
+            @Deprecated
             public void setVariable(Environment.Variable variable) {
                 this.variable = variable;
             }
@@ -542,6 +749,10 @@ public abstract class Ast {
                 return getVariable().getType();
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Access &&
                         offset.equals(((Access) obj).offset) &&
@@ -549,6 +760,10 @@ public abstract class Ast {
                         Objects.equals(variable, ((Access) obj).variable);
             }
             @Override
+            long computeFingerprint() {
+                return mix(child(seed(), offset), string(name));
+            }
+            @Override
             public String toString() {
                 return "Ast.Expression.Access{" +
                         "offset=" + offset +
@@ -577,6 +792,7 @@ public abstract class Ast {
                 }
                 return function;
             }
+            @Deprecated
             public void setFunction(Environment.Function function) {
                 this.function = function;
             }
@@ -585,6 +801,10 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Expression.Function &&
                         name.equals(((Ast.Expression.Function) obj).name) &&
@@ -594,6 +814,10 @@ public abstract class Ast {
                                 obj).function);
             }
             @Override
+            long computeFingerprint() {
+                return children(mix(seed(), string(name)), arguments);
+            }
+            @Override
             public String toString() {
                 return "Ast.Expression.Function{" +
                         "name='" + name + '\'' +
@@ -618,16 +842,25 @@ public abstract class Ast {
                 }
                 return type;
             }
+            @Deprecated
             public void setType(Environment.Type type) {
                 this.type = type;
             }
             @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+            @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Expression.PlcList &&
                         values.equals(((Ast.Expression.PlcList) obj).values) &&
                         Objects.equals(type, ((Ast.Expression.PlcList) obj).type);
             }
             @Override
+            long computeFingerprint() {
+                return children(seed(), values);
+            }
+            @Override
             public String toString() {
                 return "Ast.Expression.PlcList{" +
                         "values=[" + values + "]" +
@@ -638,44 +871,7 @@ public abstract class Ast {
     }
     public interface Visitor<T> {
         default T visit(Ast ast) {
-            if (ast instanceof Ast.Source) {
-                return visit((Ast.Source) ast);
-            } else if (ast instanceof Ast.Global) {
-                return visit((Ast.Global) ast);
-            } else if (ast instanceof Ast.Function) {
-                return visit((Ast.Function) ast);
-            } else if (ast instanceof Ast.Statement.Expression) {
-                return visit((Ast.Statement.Expression) ast);
-            } else if (ast instanceof Ast.Statement.Declaration) {
-                return visit((Ast.Statement.Declaration) ast);
-            } else if (ast instanceof Ast.Statement.Assignment) {
-                return visit((Ast.Statement.Assignment) ast);
-            } else if (ast instanceof Ast.Statement.If) {
-                return visit((Ast.Statement.If) ast);
-            } else if (ast instanceof Ast.Statement.Switch) {
-                return visit((Ast.Statement.Switch) ast);
-            } else if (ast instanceof Ast.Statement.Case) {
-                return visit((Ast.Statement.Case) ast);
-            } else if (ast instanceof Ast.Statement.While) {
-                return visit((Ast.Statement.While) ast);
-            } else if (ast instanceof Ast.Statement.Return) {
-                return visit((Ast.Statement.Return) ast);
-            } else if (ast instanceof Ast.Expression.Literal) {
-                return visit((Ast.Expression.Literal) ast);
-            } else if (ast instanceof Ast.Expression.Group) {
-                return visit((Ast.Expression.Group) ast);
-            } else if (ast instanceof Ast.Expression.Binary) {
-                return visit((Ast.Expression.Binary) ast);
-            } else if (ast instanceof Ast.Expression.Access) {
-                return visit((Ast.Expression.Access) ast);
-            } else if (ast instanceof Ast.Expression.Function) {
-                return visit((Ast.Expression.Function) ast);
-            } else if (ast instanceof Ast.Expression.PlcList) {
-                return visit((Ast.Expression.PlcList) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " +
-                        ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
         T visit(Ast.Source ast);
         T visit(Ast.Global ast);
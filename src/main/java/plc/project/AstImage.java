@@ -0,0 +1,864 @@
+package plc.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * A compact binary image of an analyzed {@link Ast.Source}, including the
+ * types, variables, functions and lexical addresses resolved by the
+ * {@link Analyzer}. An image is written once and loaded back without lexing,
+ * parsing or analyzing the source again, usually straight from a
+ * memory-mapped file.
+ * <p>
+ * The image is big-endian and starts with {@link #MAGIC} and
+ * {@link #VERSION}, followed by four tables and the nodes:
+ * <pre>
+ * strings      count, (length, UTF-8 bytes)*
+ * types        count, name*
+ * variables    count, (name, jvmName, type, mutable)*
+ * functions    count, (name, jvmName, parameters, type*, returnType)*
+ * nodes        the source, in pre-order
+ * </pre>
+ * Counts and indices are unsigned LEB128 varints, so most take one byte. Each
+ * node is a tag byte followed by its fields, with names as string table
+ * indices and annotations as indices into the type, variable and function
+ * tables. Optional names and annotations are stored as one more than their
+ * index, or 0 where absent, such as for a source written unanalyzed.
+ * Variables and functions are written once however many nodes resolve to
+ * them, so nodes sharing a variable before writing share it again after
+ * loading. Types are stored by name and loaded through
+ * {@link Environment#getType(String)}. Functions are stored by signature
+ * only, so invoking a loaded {@link Environment.Function} throws; a loaded
+ * source is run by interpreting it, which defines its functions anew.
+ */
+public final class AstImage {
+
+    static final int MAGIC = 0x504C4349; // "PLCI"
+    static final int VERSION = 2;
+
+    private static final byte SOURCE = 0;
+    private static final byte GLOBAL = 1;
+    private static final byte FUNCTION = 2;
+    private static final byte EXPRESSION = 3;
+    private static final byte DECLARATION = 4;
+    private static final byte ASSIGNMENT = 5;
+    private static final byte IF = 6;
+    private static final byte SWITCH = 7;
+    private static final byte CASE = 8;
+    private static final byte WHILE = 9;
+    private static final byte RETURN = 10;
+    private static final byte LITERAL = 11;
+    private static final byte GROUP = 12;
+    private static final byte BINARY = 13;
+    private static final byte ACCESS = 14;
+    private static final byte CALL = 15;
+    private static final byte LIST = 16;
+
+    private static final byte NIL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte CHARACTER = 2;
+    private static final byte STRING = 3;
+    private static final byte INTEGER = 4;
+    private static final byte DECIMAL = 5;
+
+    private AstImage() {}
+
+    /**
+     * Returns the image of {@code ast} without annotations, as for a source
+     * that was not analyzed.
+     */
+    public static byte[] write(Ast.Source ast) {
+        return write(ast, new Annotations());
+    }
+
+    /**
+     * Returns the image of {@code ast}, analyzed into {@code annotations}.
+     */
+    public static byte[] write(Ast.Source ast, Annotations annotations) {
+        return new Writer(annotations).write(ast);
+    }
+
+    /**
+     * Writes the image of {@code ast}, analyzed into {@code annotations}, to
+     * the file at {@code path}.
+     */
+    public static void write(Ast.Source ast, Annotations annotations, Path path) throws IOException {
+        Files.write(path, write(ast, annotations));
+    }
+
+    /**
+     * Reads the nodes of an image from the remaining bytes of
+     * {@code buffer}, leaving out its annotations so the nodes are never
+     * written.
+     */
+    public static Ast.Source read(ByteBuffer buffer) {
+        return read(buffer, new Annotations());
+    }
+
+    /**
+     * Reads an image from the remaining bytes of {@code buffer}, storing its
+     * annotations in {@code annotations}.
+     */
+    public static Ast.Source read(ByteBuffer buffer, Annotations annotations) {
+        try {
+            return new Reader(buffer.slice(), annotations).read();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or corrupt AST image.", e);
+        }
+    }
+
+    /**
+     * Loads the nodes of the image in the memory-mapped file at
+     * {@code path}, leaving out its annotations as with
+     * {@link #read(ByteBuffer)}.
+     */
+    public static Ast.Source load(Path path) throws IOException {
+        return load(path, new Annotations());
+    }
+
+    /**
+     * Loads the image in the memory-mapped file at {@code path}, as with
+     * {@link #read(ByteBuffer, Annotations)}.
+     */
+    public static Ast.Source load(Path path, Annotations annotations) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), annotations);
+        }
+    }
+
+    /**
+     * Returns the annotation read by {@code annotation}, or {@code null} for a
+     * node without one, such as any node of a source written unanalyzed.
+     */
+    private static <T> T annotation(Supplier<T> annotation) {
+        try {
+            return annotation.get();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes nodes into a body while collecting the tables they refer to,
+     * which are written ahead of the body once it is complete.
+     */
+    private static final class Writer implements Ast.Visitor<Void> {
+
+        private final Annotations annotations;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream body = new DataOutputStream(bytes);
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Environment.Type, Integer> types = new IdentityHashMap<>();
+        private final Map<Environment.Variable, Integer> variables = new IdentityHashMap<>();
+        private final Map<Environment.Function, Integer> functions = new IdentityHashMap<>();
+
+        private Writer(Annotations annotations) {
+            this.annotations = annotations;
+        }
+
+        private byte[] write(Ast.Source ast) {
+            try {
+                visit(ast);
+                byte[] nodes = bytes.toByteArray();
+                bytes.reset();
+                body.writeInt(MAGIC);
+                body.writeInt(VERSION);
+                varint(strings.size());
+                for (String string : keys(strings)) {
+                    byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                    varint(utf8.length);
+                    body.write(utf8);
+                }
+                varint(types.size());
+                for (Environment.Type type : keys(types)) {
+                    varint(strings.get(type.getName()));
+                }
+                varint(variables.size());
+                for (Environment.Variable variable : keys(variables)) {
+                    varint(strings.get(variable.getName()));
+                    varint(strings.get(variable.getJvmName()));
+                    varint(types.get(variable.getType()));
+                    body.writeBoolean(variable.getMutable());
+                }
+                varint(functions.size());
+                for (Environment.Function function : keys(functions)) {
+                    varint(strings.get(function.getName()));
+                    varint(strings.get(function.getJvmName()));
+                    varint(function.getParameterTypes().size());
+                    for (Environment.Type type : function.getParameterTypes()) {
+                        varint(types.get(type));
+                    }
+                    varint(types.get(function.getReturnType()));
+                }
+                body.write(nodes);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Returns the keys of a table in index order.
+         */
+        private static <K> List<K> keys(Map<K, Integer> table) {
+            List<K> keys = new ArrayList<>(table.size());
+            for (int i = 0; i < table.size(); i++) {
+                keys.add(null);
+            }
+            table.forEach((key, index) -> keys.set(index, key));
+            return keys;
+        }
+
+        private static <K> int index(Map<K, Integer> table, K key) {
+            return table.computeIfAbsent(key, k -> table.size());
+        }
+
+        private void tag(byte tag) {
+            try {
+                body.writeByte(tag);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Writes {@code value} as an unsigned LEB128 varint, so the small
+         * indices and counts making up most of an image take a single byte.
+         */
+        private void varint(int value) {
+            try {
+                while ((value & ~0x7F) != 0) {
+                    body.writeByte(value & 0x7F | 0x80);
+                    value >>>= 7;
+                }
+                body.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Writes an index that may be absent, as one more than the index or
+         * 0 for {@code null}.
+         */
+        private void optional(Integer index) {
+            varint(index == null ? 0 : index + 1);
+        }
+
+        private void string(String string) {
+            optional(string == null ? null : index(strings, string));
+        }
+
+        private void type(Environment.Type type) {
+            if (type == null) {
+                optional(null);
+            } else {
+                index(strings, type.getName());
+                optional(index(types, type));
+            }
+        }
+
+        private void variable(Ast ast) {
+            Environment.Variable variable = annotation(() -> annotations.getVariable(ast));
+            if (variable == null) {
+                optional(null);
+            } else {
+                index(strings, variable.getName());
+                index(strings, variable.getJvmName());
+                index(strings, variable.getType().getName());
+                index(types, variable.getType());
+                optional(index(variables, variable));
+            }
+        }
+
+        private void function(Ast ast) {
+            Environment.Function function = annotation(() -> annotations.getFunction(ast));
+            if (function == null) {
+                optional(null);
+            } else {
+                index(strings, function.getName());
+                index(strings, function.getJvmName());
+                for (Environment.Type type : function.getParameterTypes()) {
+                    index(strings, type.getName());
+                    index(types, type);
+                }
+                index(strings, function.getReturnType().getName());
+                index(types, function.getReturnType());
+                optional(index(functions, function));
+            }
+        }
+
+        private void address(Ast ast) {
+            Environment.Address address = annotations.getAddress(ast);
+            if (address == null) {
+                optional(null);
+            } else {
+                optional(address.getDepth());
+                varint(address.getSlot());
+            }
+        }
+
+        private void child(Optional<? extends Ast> child) {
+            if (child.isPresent()) {
+                tag((byte) 1);
+                visit(child.get());
+            } else {
+                tag((byte) 0);
+            }
+        }
+
+        private void children(List<? extends Ast> children) {
+            varint(children.size());
+            for (Ast child : children) {
+                visit(child);
+            }
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            tag(SOURCE);
+            varint(annotations.getFrameSize(ast) + 1);
+            children(ast.getGlobals());
+            children(ast.getFunctions());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            tag(GLOBAL);
+            string(ast.getName());
+            string(ast.getTypeName());
+            tag((byte) (ast.getMutable() ? 1 : 0));
+            variable(ast);
+            address(ast);
+            child(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            tag(FUNCTION);
+            string(ast.getName());
+            varint(ast.getParameters().size());
+            for (String parameter : ast.getParameters()) {
+                string(parameter);
+            }
+            varint(ast.getParameterTypeNames().size());
+            for (String parameterTypeName : ast.getParameterTypeNames()) {
+                string(parameterTypeName);
+            }
+            string(ast.getReturnTypeName().orElse(null));
+            function(ast);
+            varint(annotations.getFrameSize(ast) + 1);
+            children(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            tag(EXPRESSION);
+            visit(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            tag(DECLARATION);
+            string(ast.getName());
+            string(ast.getTypeName().orElse(null));
+            variable(ast);
+            address(ast);
+            child(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            tag(ASSIGNMENT);
+            visit(ast.getReceiver());
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            tag(IF);
+            visit(ast.getCondition());
+            children(ast.getThenStatements());
+            children(ast.getElseStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            tag(SWITCH);
+            visit(ast.getCondition());
+            children(ast.getCases());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            tag(CASE);
+            child(ast.getValue());
+            children(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            tag(WHILE);
+            visit(ast.getCondition());
+            children(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            tag(RETURN);
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            tag(LITERAL);
+            type(annotation(() -> annotations.getType(ast)));
+            Object literal = ast.getLiteral();
+            try {
+                if (literal == null) {
+                    body.writeByte(NIL);
+                } else if (literal instanceof Boolean) {
+                    body.writeByte(BOOLEAN);
+                    body.writeBoolean((Boolean) literal);
+                } else if (literal instanceof Character) {
+                    body.writeByte(CHARACTER);
+                    body.writeChar((Character) literal);
+                } else if (literal instanceof String) {
+                    body.writeByte(STRING);
+                    varint(index(strings, (String) literal));
+                } else if (literal instanceof BigInteger) {
+                    body.writeByte(INTEGER);
+                    byte[] value = ((BigInteger) literal).toByteArray();
+                    varint(value.length);
+                    body.write(value);
+                } else if (literal instanceof BigDecimal) {
+                    body.writeByte(DECIMAL);
+                    int scale = ((BigDecimal) literal).scale();
+                    varint(scale << 1 ^ scale >> 31);
+                    byte[] value = ((BigDecimal) literal).unscaledValue().toByteArray();
+                    varint(value.length);
+                    body.write(value);
+                } else {
+                    throw new IllegalArgumentException("Cannot write literal of type " + literal.getClass().getName() + ".");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            tag(GROUP);
+            type(annotation(() -> annotations.getType(ast)));
+            visit(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            tag(BINARY);
+            type(annotation(() -> annotations.getType(ast)));
+            string(ast.getOperator());
+            visit(ast.getLeft());
+            visit(ast.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            tag(ACCESS);
+            string(ast.getName());
+            variable(ast);
+            address(ast);
+            child(ast.getOffset());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            tag(CALL);
+            string(ast.getName());
+            function(ast);
+            children(ast.getArguments());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            tag(LIST);
+            type(annotation(() -> annotations.getType(ast)));
+            children(ast.getValues());
+            return null;
+        }
+
+    }
+
+    /**
+     * Reads the tables up front, then rebuilds the nodes in pre-order directly
+     * from the buffer.
+     */
+    private static final class Reader {
+
+        private final ByteBuffer buffer;
+        private final Annotations annotations;
+        private String[] strings;
+        private Environment.Type[] types;
+        private Environment.Variable[] variables;
+        private Environment.Function[] functions;
+
+        private Reader(ByteBuffer buffer, Annotations annotations) {
+            this.buffer = buffer;
+            this.annotations = annotations;
+        }
+
+        private Ast.Source read() {
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not an AST image.");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported AST image version " + version + ", expected " + VERSION + ".");
+            }
+            strings = new String[length()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[length()];
+                buffer.get(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+            types = new Environment.Type[length()];
+            for (int i = 0; i < types.length; i++) {
+                String name = strings[varint()];
+                if (!Environment.hasType(name)) {
+                    throw corrupt();
+                }
+                types[i] = Environment.getType(name);
+            }
+            variables = new Environment.Variable[length()];
+            for (int i = 0; i < variables.length; i++) {
+                String name = strings[varint()];
+                String jvmName = strings[varint()];
+                Environment.Type type = types[varint()];
+                variables[i] = new Environment.Variable(name, jvmName, type, buffer.get() != 0, Environment.NIL);
+            }
+            functions = new Environment.Function[length()];
+            for (int i = 0; i < functions.length; i++) {
+                String name = strings[varint()];
+                String jvmName = strings[varint()];
+                List<Environment.Type> parameterTypes = new ArrayList<>();
+                for (int j = length(); j > 0; j--) {
+                    parameterTypes.add(types[varint()]);
+                }
+                Environment.Type returnType = types[varint()];
+                functions[i] = new Environment.Function(name, jvmName, parameterTypes, returnType, args -> {
+                    throw new UnsupportedOperationException("The function " + name + " was loaded from an AST image, which only stores its signature.");
+                });
+            }
+            return node(Ast.Source.class);
+        }
+
+        /**
+         * Reads a varint, which must fit in a non-negative int.
+         */
+        private int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buffer.get();
+                if ((b & 0x7F) > Integer.MAX_VALUE >>> shift) {
+                    throw corrupt();
+                }
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw corrupt();
+        }
+
+        /**
+         * Reads a count of bytes or of entries, each taking at least one of
+         * the remaining bytes.
+         */
+        private int length() {
+            int length = varint();
+            if (length > buffer.remaining()) {
+                throw corrupt();
+            }
+            return length;
+        }
+
+        private IllegalArgumentException corrupt() {
+            return new IllegalArgumentException("Truncated or corrupt AST image.");
+        }
+
+        /**
+         * Reads an index that may be absent, returning -1 if it is.
+         */
+        private int optional() {
+            return varint() - 1;
+        }
+
+        private String string() {
+            int index = optional();
+            return index == -1 ? null : strings[index];
+        }
+
+        private Environment.Type type() {
+            int index = optional();
+            return index == -1 ? null : types[index];
+        }
+
+        private Environment.Variable variable() {
+            int index = optional();
+            return index == -1 ? null : variables[index];
+        }
+
+        private Environment.Function function() {
+            int index = optional();
+            return index == -1 ? null : functions[index];
+        }
+
+        private Environment.Address address() {
+            int depth = optional();
+            return depth == -1 ? null : new Environment.Address(depth, varint());
+        }
+
+        private <T extends Ast> T framed(T ast, int frameSize) {
+            if (frameSize != -1) {
+                annotations.setFrameSize(ast, frameSize);
+            }
+            return ast;
+        }
+
+        private <T extends Ast> T addressed(T ast, Environment.Address address) {
+            if (address != null) {
+                annotations.setAddress(ast, address);
+            }
+            return ast;
+        }
+
+        private <T extends Ast> Optional<T> child(Class<T> type) {
+            return buffer.get() != 0 ? Optional.of(node(type)) : Optional.empty();
+        }
+
+        private <T extends Ast> List<T> children(Class<T> type) {
+            int count = length();
+            List<T> children = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                children.add(node(type));
+            }
+            return children;
+        }
+
+        private List<String> strings() {
+            int count = length();
+            List<String> strings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                strings.add(string());
+            }
+            return strings;
+        }
+
+        private Ast.Expression expression() {
+            return node(Ast.Expression.class);
+        }
+
+        /**
+         * Reads a node, which must be of the given class.
+         */
+        private <T extends Ast> T node(Class<T> type) {
+            Ast ast = node();
+            if (!type.isInstance(ast)) {
+                throw corrupt();
+            }
+            return type.cast(ast);
+        }
+
+        private Ast node() {
+            byte tag = buffer.get();
+            switch (tag) {
+                case SOURCE: {
+                    int frameSize = optional();
+                    List<Ast.Global> globals = children(Ast.Global.class);
+                    return framed(new Ast.Source(globals, children(Ast.Function.class)), frameSize);
+                }
+                case GLOBAL: {
+                    String name = string();
+                    String typeName = string();
+                    boolean mutable = buffer.get() != 0;
+                    Environment.Variable variable = variable();
+                    Environment.Address address = address();
+                    Ast.Global ast = new Ast.Global(name, typeName, mutable, child(Ast.Expression.class));
+                    if (variable != null) {
+                        annotations.setVariable(ast, variable);
+                    }
+                    return addressed(ast, address);
+                }
+                case FUNCTION: {
+                    String name = string();
+                    List<String> parameters = strings();
+                    List<String> parameterTypeNames = strings();
+                    Optional<String> returnTypeName = Optional.ofNullable(string());
+                    Environment.Function function = function();
+                    int frameSize = optional();
+                    Ast.Function ast = new Ast.Function(name, parameters, parameterTypeNames, returnTypeName,
+                            children(Ast.Statement.class));
+                    if (function != null) {
+                        annotations.setFunction(ast, function);
+                    }
+                    return framed(ast, frameSize);
+                }
+                case EXPRESSION:
+                    return new Ast.Statement.Expression(expression());
+                case DECLARATION: {
+                    String name = string();
+                    Optional<String> typeName = Optional.ofNullable(string());
+                    Environment.Variable variable = variable();
+                    Environment.Address address = address();
+                    Ast.Statement.Declaration ast = new Ast.Statement.Declaration(name, typeName,
+                            child(Ast.Expression.class));
+                    if (variable != null) {
+                        annotations.setVariable(ast, variable);
+                    }
+                    return addressed(ast, address);
+                }
+                case ASSIGNMENT: {
+                    Ast.Expression receiver = expression();
+                    return new Ast.Statement.Assignment(receiver, expression());
+                }
+                case IF: {
+                    Ast.Expression condition = expression();
+                    List<Ast.Statement> thenStatements = children(Ast.Statement.class);
+                    return new Ast.Statement.If(condition, thenStatements, children(Ast.Statement.class));
+                }
+                case SWITCH: {
+                    Ast.Expression condition = expression();
+                    return new Ast.Statement.Switch(condition, children(Ast.Statement.Case.class));
+                }
+                case CASE: {
+                    Optional<Ast.Expression> value = child(Ast.Expression.class);
+                    return new Ast.Statement.Case(value, children(Ast.Statement.class));
+                }
+                case WHILE: {
+                    Ast.Expression condition = expression();
+                    return new Ast.Statement.While(condition, children(Ast.Statement.class));
+                }
+                case RETURN:
+                    return new Ast.Statement.Return(expression());
+                case LITERAL: {
+                    Environment.Type type = type();
+                    return typed(new Ast.Expression.Literal(literal()), type);
+                }
+                case GROUP: {
+                    Environment.Type type = type();
+                    return typed(new Ast.Expression.Group(expression()), type);
+                }
+                case BINARY: {
+                    Environment.Type type = type();
+                    String operator = string();
+                    Ast.Expression left = expression();
+                    return typed(new Ast.Expression.Binary(operator, left, expression()), type);
+                }
+                case ACCESS: {
+                    String name = string();
+                    Environment.Variable variable = variable();
+                    Environment.Address address = address();
+                    Ast.Expression.Access ast = new Ast.Expression.Access(child(Ast.Expression.class), name);
+                    if (variable != null) {
+                        annotations.setVariable(ast, variable);
+                    }
+                    return addressed(ast, address);
+                }
+                case CALL: {
+                    String name = string();
+                    Environment.Function function = function();
+                    Ast.Expression.Function ast = new Ast.Expression.Function(name, children(Ast.Expression.class));
+                    if (function != null) {
+                        annotations.setFunction(ast, function);
+                    }
+                    return ast;
+                }
+                case LIST: {
+                    Environment.Type type = type();
+                    return typed(new Ast.Expression.PlcList(children(Ast.Expression.class)), type);
+                }
+                default:
+                    throw corrupt();
+            }
+        }
+
+        private Ast.Expression typed(Ast.Expression ast, Environment.Type type) {
+            if (type != null) {
+                annotations.setType(ast, type);
+            }
+            return ast;
+        }
+
+        private Object literal() {
+            byte kind = buffer.get();
+            switch (kind) {
+                case NIL:
+                    return null;
+                case BOOLEAN:
+                    return buffer.get() != 0;
+                case CHARACTER:
+                    return buffer.getChar();
+                case STRING:
+                    return strings[varint()];
+                case INTEGER:
+                    return integer();
+                case DECIMAL: {
+                    int scale = varint();
+                    scale = scale >>> 1 ^ -(scale & 1);
+                    return new BigDecimal(integer(), scale);
+                }
+                default:
+                    throw corrupt();
+            }
+        }
+
+        /**
+         * Reads a {@link BigInteger} from its two's complement bytes, of which
+         * there is always at least one.
+         */
+        private BigInteger integer() {
+            byte[] value = new byte[length()];
+            if (value.length == 0) {
+                throw corrupt();
+            }
+            buffer.get(value);
+            return new BigInteger(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,133 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Hash-conses constant expressions for the {@link Parser}: literals, and
+ * groups and binary expressions built only from constants. Structurally
+ * identical constants are replaced by one shared node, found by
+ * {@link Ast#getFingerprint()}, which saves memory in generated sources that
+ * repeat the same literals and constant expressions many times over.
+ * <p>
+ * Only constants are shared since their analysis is the same wherever they
+ * appear, so annotating a shared node in place or in {@link Annotations}
+ * gives every occurrence the right type. Accesses and calls are not shared,
+ * as the variable or function they resolve to depends on their scope.
+ * <p>
+ * Interners are not thread safe, and are meant to be used for one parse.
+ */
+public final class AstInterner {
+
+    private final Map<Long, Ast.Expression> nodes = new HashMap<>();
+    private long hits = 0;
+    private long savedBytes = 0;
+
+    /**
+     * Returns the shared node structurally identical to {@code ast} if it is
+     * a constant, adding {@code ast} as that node if there is none yet, and
+     * otherwise returns {@code ast}.
+     */
+    public Ast.Expression intern(Ast.Expression ast) {
+        if (!isConstant(ast)) {
+            return ast;
+        }
+        long fingerprint = ast.getFingerprint();
+        Ast.Expression shared = nodes.putIfAbsent(fingerprint, ast);
+        if (shared == null) {
+            return ast;
+        } else if (!isSame(shared, ast)) {
+            return ast; // Fingerprint collision, left unshared
+        }
+        hits++;
+        savedBytes += size(ast);
+        return shared;
+    }
+
+    /**
+     * Returns the number of distinct constant nodes interned.
+     */
+    public int getNodes() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the number of nodes replaced by a shared node.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns an estimate of the heap the replaced nodes would have taken,
+     * including literal values, on a 64-bit JVM with compressed references.
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    private boolean isConstant(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return true;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return isShared(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            return isShared(binary.getLeft()) && isShared(binary.getRight());
+        }
+        return false;
+    }
+
+    private boolean isShared(Ast.Expression ast) {
+        return nodes.get(ast.getFingerprint()) == ast;
+    }
+
+    /**
+     * Returns true if two constants are structurally identical. Their
+     * children are shared already, so they are compared by identity.
+     */
+    private static boolean isSame(Ast.Expression shared, Ast.Expression ast) {
+        if (shared.getClass() != ast.getClass()) {
+            return false;
+        } else if (ast instanceof Ast.Expression.Literal) {
+            return Objects.equals(((Ast.Expression.Literal) shared).getLiteral(), ((Ast.Expression.Literal) ast).getLiteral());
+        } else if (ast instanceof Ast.Expression.Group) {
+            return ((Ast.Expression.Group) shared).getExpression() == ((Ast.Expression.Group) ast).getExpression();
+        }
+        Ast.Expression.Binary left = (Ast.Expression.Binary) shared;
+        Ast.Expression.Binary right = (Ast.Expression.Binary) ast;
+        return left.getOperator().equals(right.getOperator())
+                && left.getLeft() == right.getLeft() && left.getRight() == right.getRight();
+    }
+
+    /**
+     * Estimates the size of a node that is no longer referenced once
+     * replaced: the node itself, and the value of a literal.
+     */
+    private static long size(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Binary) {
+            return 40;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return 32;
+        }
+        Object literal = ((Ast.Expression.Literal) ast).getLiteral();
+        if (literal instanceof BigInteger) {
+            return 32 + 40 + align(16 + 4 * ((((BigInteger) literal).bitLength() + 31) / 32));
+        } else if (literal instanceof BigDecimal) {
+            return 32 + 40;
+        } else if (literal instanceof String) {
+            return 32 + 24 + align(16 + ((String) literal).length());
+        } else if (literal instanceof Character && (Character) literal > 127) {
+            return 32 + 16;
+        }
+        return 32;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+}
@@ -0,0 +1,205 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk cache in front of the lexer, parser, analyzer and generator,
+ * keyed by a SHA-256 hash of the source text and {@link #VERSION}. Analyzed
+ * sources are stored as {@link AstImage}s and generated code as text, so a
+ * compile of an unchanged source skips every phase.
+ * <p>
+ * Entries are written to a temporary file and moved into place atomically,
+ * so concurrent compiles and crashes never leave a partial entry. Entries are
+ * touched on every hit, and when the directory grows past its maximum size
+ * the least recently used entries are deleted. A cache may be shared between
+ * threads and processes.
+ */
+public final class CompilationCache {
+
+    /**
+     * The compiler version included in every key, which must change whenever
+     * the output of any phase does so stale entries are never hit.
+     */
+    public static final String VERSION = "1.0/image-" + AstImage.VERSION;
+
+    private static final String IMAGE = ".image";
+    private static final String JAVA = ".java";
+
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache in {@code directory}, creating it if needed, which
+     * evicts entries once they total more than {@code maxSize} bytes.
+     */
+    public CompilationCache(Path directory, long maxSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns {@code source} lexed, parsed and analyzed into
+     * {@code annotations}, loading it from the cache if present.
+     */
+    public Ast.Source analyze(String source, Annotations annotations) throws IOException {
+        Path path = directory.resolve(key(source) + IMAGE);
+        try {
+            Ast.Source ast = AstImage.load(path, annotations);
+            hit(path);
+            return ast;
+        } catch (NoSuchFileException e) {
+            // Not cached yet
+        } catch (IllegalArgumentException e) {
+            Files.deleteIfExists(path); // Corrupt, so compiled again
+        }
+        misses.incrementAndGet();
+        Ast.Source ast = parse(source);
+        new Analyzer(new Scope(null), annotations).visit(ast);
+        store(path, AstImage.write(ast, annotations));
+        return ast;
+    }
+
+    /**
+     * Returns the Java code generated for {@code source}, loading it from the
+     * cache if present.
+     */
+    public String generate(String source) throws IOException {
+        Path path = directory.resolve(key(source) + JAVA);
+        try {
+            String code = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            hit(path);
+            return code;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+        }
+        Ast.Source ast = parse(source);
+        Annotations annotations = new Annotations();
+        new Analyzer(new Scope(null), annotations).visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer), annotations).visit(ast);
+        String code = writer.toString();
+        store(path, code.getBytes(StandardCharsets.UTF_8));
+        return code;
+    }
+
+    /**
+     * Returns the number of lookups found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups compiled because they were not cached.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static Ast.Source parse(String source) {
+        return new Parser(new Lexer(source).lex()).parseSource();
+    }
+
+    /**
+     * Returns the hex SHA-256 hash of {@link #VERSION} and {@code source}.
+     */
+    static String key(String source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // Required on every platform
+        }
+        digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            key.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    private void hit(Path path) {
+        hits.incrementAndGet();
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted by another compile, which only affects recency
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file and moves it into place, then
+     * evicts entries if the cache has grown past its maximum size.
+     */
+    private void store(Path path, byte[] bytes) throws IOException {
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    private void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long size = 0;
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*{" + IMAGE + "," + JAVA + "}")) {
+            for (Path path : paths) {
+                try {
+                    Entry entry = new Entry(path, Files.size(path), Files.getLastModifiedTime(path));
+                    entries.add(entry);
+                    size += entry.size;
+                } catch (NoSuchFileException e) {
+                    // Evicted by another compile
+                }
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        entries.sort(Comparator.comparing(entry -> entry.lastUsed));
+        for (Entry entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            Files.deleteIfExists(entry.path);
+            size -= entry.size;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Path path;
+        private final long size;
+        private final FileTime lastUsed;
+
+        private Entry(Path path, long size, FileTime lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+
+    }
+
+}
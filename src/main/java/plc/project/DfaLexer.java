@@ -0,0 +1,365 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table-driven lexer producing the same tokens, and the same errors, as
+ * {@link Lexer} with the {@link Lexer.Operators#DEFAULT default operators}. It
+ * can be used in place of {@link Lexer#lex()} and {@link Lexer#lexBuffer()}.
+ * <p>
+ * The token rules from the grammar (identifier, integer, decimal, character,
+ * string, escape and operator) are written out as a DFA over ASCII, plus one
+ * symbol for any other character and one for UTF-8 continuation bytes. It is
+ * minimized by partition refinement, and characters with identical columns
+ * are merged into classes, leaving a dense {@code state * classes} table.
+ * <p>
+ * Every state on the way to a token accepts, except inside character and
+ * string literals, so each token is lexed in a single pass: the machine runs
+ * until it has no transition, then emits the token of its state or throws the
+ * state's error.
+ */
+public final class DfaLexer {
+
+    private static final int OTHER = 128; // Any other char, or a UTF-8 lead byte
+    private static final int CONTINUATION = 129; // A UTF-8 continuation byte
+    private static final int SYMBOLS = 130;
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private static final int START;
+    private static final int CLASSES;
+    private static final byte[] CHAR_CLASSES = new byte[129]; // by min(c, 128)
+    private static final byte[] BYTE_CLASSES = new byte[256]; // by b & 0xFF
+    private static final int[] TRANSITIONS; // [state * CLASSES + class], 0 if none
+    private static final byte[] ACCEPT; // Token.Type ordinal, or -1
+    private static final String[] EOF_ERRORS;
+    private static final int[] EOF_OFFSETS;
+    private static final String[] CHAR_ERRORS;
+    private static final int[] CHAR_OFFSETS;
+
+    static {
+        Spec spec = new Spec();
+        int start = spec.state(null);
+
+        int identifier = spec.state(Token.Type.IDENTIFIER);
+        spec.on(start, Lexer.IDENTIFIER_START, identifier);
+        spec.on(identifier, Lexer.IDENTIFIER_PART, identifier);
+
+        // Numbers starting with 0, 1-9 and - each have their own states here,
+        // which minimization merges again.
+        int zero = spec.number(Token.Type.INTEGER);
+        int integer = spec.number(Token.Type.INTEGER);
+        int minus = spec.state(Token.Type.OPERATOR);
+        int negative = spec.number(Token.Type.INTEGER);
+        spec.on(start, '0', zero);
+        spec.on(start, Lexer.NONZERO_DIGIT, integer);
+        spec.on(integer, Lexer.DIGIT, integer);
+        spec.on(start, '-', minus);
+        spec.on(minus, Lexer.DIGIT, negative);
+        spec.on(negative, Lexer.DIGIT, negative);
+
+        int character = spec.error("Unterminated character literal", 0, "Unterminated character literal", 0);
+        int characterEscape = spec.error("Invalid escape sequence", 0, "Invalid escape sequence", 0);
+        int characterBody = spec.error("Unterminated character literal", 0, "Unterminated character literal", 0);
+        int characterEscaped = spec.error("Unterminated character literal", 0, "Unterminated character literal", 0);
+        int characterEnd = spec.state(Token.Type.CHARACTER);
+        spec.on(start, '\'', character);
+        spec.onAll(character, characterBody);
+        spec.on(character, '\\', characterEscape);
+        spec.on(characterBody, CONTINUATION, characterBody);
+        spec.on(characterBody, '\'', characterEnd);
+        spec.on(characterEscape, Lexer.ESCAPE, characterEscaped);
+        spec.on(characterEscaped, '\'', characterEnd);
+
+        int string = spec.error("Unterminated string literal", 0, null, 0);
+        int stringEscape = spec.error("Unterminated escape sequence", -1, "Invalid escape sequence", -1);
+        int stringEnd = spec.state(Token.Type.STRING);
+        spec.on(start, '"', string);
+        spec.onAll(string, string);
+        spec.on(string, '\\', stringEscape);
+        spec.on(string, '"', stringEnd);
+        spec.on(stringEscape, Lexer.CharClass.of("bnrt\"\\"), string);
+
+        // Any other character is an operator, with continuation bytes, and
+        // the operators in Lexer.Operators.DEFAULT extend their first char.
+        int operator = spec.state(Token.Type.OPERATOR);
+        int longOperator = spec.state(Token.Type.OPERATOR);
+        spec.on(operator, CONTINUATION, operator);
+        for (int c = 0; c < SYMBOLS; c++) {
+            if (spec.next(start, c) == 0 && !(c < 128 && Character.isWhitespace(c))) {
+                spec.on(start, c, operator);
+            }
+        }
+        for (String prefix : new String[] {"!=", "==", "&&", "||"}) {
+            int first = spec.state(Token.Type.OPERATOR);
+            spec.on(start, prefix.charAt(0), first);
+            spec.on(first, CONTINUATION, operator);
+            spec.on(first, prefix.charAt(1), longOperator);
+        }
+
+        Spec minimal = spec.minimize(start);
+        START = minimal.start;
+        CLASSES = minimal.classify(CHAR_CLASSES, BYTE_CLASSES);
+        int states = minimal.accept.size();
+        TRANSITIONS = new int[states * CLASSES];
+        ACCEPT = new byte[states];
+        EOF_ERRORS = new String[states];
+        EOF_OFFSETS = new int[states];
+        CHAR_ERRORS = new String[states];
+        CHAR_OFFSETS = new int[states];
+        for (int state = 0; state < states; state++) {
+            for (int c = 0; c < SYMBOLS; c++) {
+                TRANSITIONS[state * CLASSES + minimal.symbolClasses[c]] = minimal.next(state, c);
+            }
+            ACCEPT[state] = minimal.accept.get(state) == null ? -1 : (byte) minimal.accept.get(state).ordinal();
+            EOF_ERRORS[state] = minimal.eofErrors.get(state);
+            EOF_OFFSETS[state] = minimal.eofOffsets.get(state);
+            CHAR_ERRORS[state] = minimal.charErrors.get(state);
+            CHAR_OFFSETS[state] = minimal.charOffsets.get(state);
+        }
+    }
+
+    private final char[] chars;
+    private final ByteBuffer bytes;
+    private final int end;
+    private final SymbolTable symbols = new SymbolTable();
+
+    public DfaLexer(String input) {
+        this.chars = input.toCharArray();
+        this.bytes = null;
+        this.end = chars.length;
+    }
+
+    /**
+     * Creates a lexer over UTF-8 {@code bytes}, as {@link Lexer#Lexer(ByteBuffer)}.
+     */
+    public DfaLexer(ByteBuffer bytes) {
+        this.chars = null;
+        this.bytes = bytes.slice();
+        this.end = this.bytes.limit();
+    }
+
+    public List<Token> lex() {
+        return lexBuffer().toList();
+    }
+
+    public TokenBuffer lexBuffer() {
+        TokenBuffer buffer = chars != null ? new TokenBuffer(chars, 0) : new TokenBuffer(bytes);
+        int index = 0;
+        while (index < end) {
+            if (Character.isWhitespace(chars != null ? chars[index] : bytes.get(index) & 0xFF)) {
+                index++;
+                continue;
+            }
+            int start = index;
+            int state = START;
+            if (chars != null) {
+                while (index < end) {
+                    int next = TRANSITIONS[state * CLASSES + CHAR_CLASSES[Math.min(chars[index], 128)]];
+                    if (next == 0) {
+                        break;
+                    }
+                    state = next;
+                    index++;
+                }
+            } else {
+                while (index < end) {
+                    int next = TRANSITIONS[state * CLASSES + BYTE_CLASSES[bytes.get(index) & 0xFF]];
+                    if (next == 0) {
+                        break;
+                    }
+                    state = next;
+                    index++;
+                }
+            }
+            if (ACCEPT[state] < 0) {
+                if (index == end) {
+                    throw new ParseException(EOF_ERRORS[state], index + EOF_OFFSETS[state]);
+                }
+                throw new ParseException(CHAR_ERRORS[state], index + CHAR_OFFSETS[state]);
+            }
+            Token.Type type = TYPES[ACCEPT[state]];
+            String symbol = null;
+            if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+                symbol = chars != null
+                        ? symbols.intern(chars, start, index - start)
+                        : symbols.intern(bytes, start, index - start);
+            }
+            buffer.add(type, start, index - start, symbol, null);
+        }
+        return buffer;
+    }
+
+    /**
+     * A DFA under construction over {@link #SYMBOLS} symbols, where state 0
+     * is the dead state. Non-accepting states record the error thrown when
+     * lexing stops in them, at the end of input or at another char.
+     */
+    private static final class Spec {
+
+        private final List<int[]> transitions = new ArrayList<>();
+        private final List<Token.Type> accept = new ArrayList<>();
+        private final List<String> eofErrors = new ArrayList<>();
+        private final List<Integer> eofOffsets = new ArrayList<>();
+        private final List<String> charErrors = new ArrayList<>();
+        private final List<Integer> charOffsets = new ArrayList<>();
+        private int start;
+        private int[] symbolClasses;
+
+        private Spec() {
+            add(null, null, 0, null, 0); // Dead
+        }
+
+        private int state(Token.Type type) {
+            return add(type, null, 0, null, 0);
+        }
+
+        private int error(String eofError, int eofOffset, String charError, int charOffset) {
+            return add(null, eofError, eofOffset, charError, charOffset);
+        }
+
+        /**
+         * Adds an integer state followed by an optional fraction: a trailing
+         * '.' is still an integer, and a decimal needs a digit after it.
+         */
+        private int number(Token.Type type) {
+            int integer = state(type);
+            int point = state(Token.Type.INTEGER);
+            int fraction = state(Token.Type.DECIMAL);
+            on(integer, '.', point);
+            on(point, Lexer.DIGIT, fraction);
+            on(fraction, Lexer.DIGIT, fraction);
+            return integer;
+        }
+
+        private int add(Token.Type type, String eofError, int eofOffset, String charError, int charOffset) {
+            transitions.add(new int[SYMBOLS]);
+            accept.add(type);
+            eofErrors.add(eofError);
+            eofOffsets.add(eofOffset);
+            charErrors.add(charError);
+            charOffsets.add(charOffset);
+            return transitions.size() - 1;
+        }
+
+        private void on(int state, int symbol, int target) {
+            transitions.get(state)[symbol] = target;
+        }
+
+        private void on(int state, Lexer.CharClass characters, int target) {
+            for (char c = 0; c < 128; c++) {
+                if (characters.matches(c)) {
+                    on(state, c, target);
+                }
+            }
+        }
+
+        private void onAll(int state, int target) {
+            Arrays.fill(transitions.get(state), target);
+        }
+
+        private int next(int state, int symbol) {
+            return transitions.get(state)[symbol];
+        }
+
+        /**
+         * Returns the minimal DFA equivalent to the states reachable from
+         * {@code start}, by Moore's partition refinement. States start out
+         * split by what they accept or throw, and are split further until
+         * every block agrees on the block each symbol leads to.
+         */
+        private Spec minimize(int start) {
+            int states = transitions.size();
+            boolean[] reachable = new boolean[states];
+            List<Integer> pending = new ArrayList<>(List.of(0, start));
+            while (!pending.isEmpty()) {
+                int state = pending.remove(pending.size() - 1);
+                if (!reachable[state]) {
+                    reachable[state] = true;
+                    for (int target : transitions.get(state)) {
+                        pending.add(target);
+                    }
+                }
+            }
+            int[] block = new int[states];
+            Map<List<Object>, Integer> blocks = new HashMap<>();
+            for (int state = 0; state < states; state++) {
+                List<Object> key = Arrays.asList(state == 0, accept.get(state), eofErrors.get(state),
+                        eofOffsets.get(state), charErrors.get(state), charOffsets.get(state));
+                block[state] = reachable[state] ? blocks.computeIfAbsent(key, k -> blocks.size()) : -1;
+            }
+            int count = blocks.size();
+            int previous;
+            do {
+                previous = count;
+                Map<List<Object>, Integer> refined = new HashMap<>();
+                int[] next = new int[states];
+                for (int state = 0; state < states; state++) {
+                    if (reachable[state]) {
+                        List<Object> key = new ArrayList<>(SYMBOLS + 1);
+                        key.add(block[state]);
+                        for (int target : transitions.get(state)) {
+                            key.add(block[target]);
+                        }
+                        next[state] = refined.computeIfAbsent(key, k -> refined.size());
+                    }
+                }
+                System.arraycopy(next, 0, block, 0, states);
+                count = refined.size();
+            } while (count != previous);
+
+            // Renumber blocks so the dead state's block is 0 again
+            int[] number = new int[count];
+            Arrays.fill(number, -1);
+            number[block[0]] = 0;
+            Spec minimal = new Spec();
+            for (int state = 1; state < states; state++) {
+                if (reachable[state] && number[block[state]] == -1) {
+                    number[block[state]] = minimal.add(accept.get(state), eofErrors.get(state),
+                            eofOffsets.get(state), charErrors.get(state), charOffsets.get(state));
+                }
+            }
+            for (int state = 1; state < states; state++) {
+                if (reachable[state]) {
+                    for (int c = 0; c < SYMBOLS; c++) {
+                        minimal.on(number[block[state]], c, number[block[next(state, c)]]);
+                    }
+                }
+            }
+            minimal.start = number[block[start]];
+            return minimal;
+        }
+
+        /**
+         * Merges symbols whose columns are identical into classes, fills the
+         * char and byte lookup tables, and returns the number of classes.
+         */
+        private int classify(byte[] charClasses, byte[] byteClasses) {
+            symbolClasses = new int[SYMBOLS];
+            Map<List<Integer>, Integer> classes = new HashMap<>();
+            for (int c = 0; c < SYMBOLS; c++) {
+                List<Integer> column = new ArrayList<>(transitions.size());
+                for (int[] row : transitions) {
+                    column.add(row[c]);
+                }
+                symbolClasses[c] = classes.computeIfAbsent(column, k -> classes.size());
+            }
+            for (int c = 0; c < 128; c++) {
+                charClasses[c] = (byte) symbolClasses[c];
+                byteClasses[c] = (byte) symbolClasses[c];
+            }
+            charClasses[128] = (byte) symbolClasses[OTHER];
+            for (int b = 128; b < 256; b++) {
+                byteClasses[b] = (byte) symbolClasses[(b & 0xC0) == 0x80 ? CONTINUATION : OTHER];
+            }
+            return classes.size();
+        }
+
+    }
+
+}
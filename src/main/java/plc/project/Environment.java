@@ -23,6 +23,12 @@ public final class Environment {
         }
         return TYPES.get(name);
     }
+    /**
+     * Returns true if a type named {@code name} is registered.
+     */
+    public static boolean hasType(String name) {
+        return TYPES.containsKey(name);
+    }
     public static void registerType(Type type) {
         if (TYPES.containsKey(type.getName())) {
             throw new IllegalArgumentException("Duplicate registration of type " +
@@ -159,6 +165,42 @@ public final class Environment {
                     '}';
         }
     }
+    /**
+     * The lexical address of a variable resolved by the {@link Analyzer}: the
+     * number of frames out from the current one, and the variable's slot in
+     * that frame.
+     */
+    public static final class Address {
+        private final int depth;
+        private final int slot;
+        public Address(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+        public int getDepth() {
+            return depth;
+        }
+        public int getSlot() {
+            return slot;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Address &&
+                    depth == ((Address) obj).depth &&
+                    slot == ((Address) obj).slot;
+        }
+        @Override
+        public int hashCode() {
+            return 31 * depth + slot;
+        }
+        @Override
+        public String toString() {
+            return "Address{" +
+                    "depth=" + depth +
+                    ", slot=" + slot +
+                    '}';
+        }
+    }
     public static final class Function {
         private final String name;
         private final String jvmName;
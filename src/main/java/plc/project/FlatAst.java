@@ -0,0 +1,305 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An AST lowered to a flat encoding for {@link FlatInterpreter}: one
+ * {@code int[]} holding every node, and a pool of constants for names and
+ * literal values. A node is a run of ints starting with its kind, followed by
+ * its operands, which are constant pool indices, counts, or the indices of
+ * child nodes (-1 for an absent optional child). Nodes are laid out in
+ * pre-order, so a node's children follow it closely and a statement list is
+ * a run of indices in its parent.
+ * <p>
+ * The layout of each kind, after the kind itself, is:
+ * <pre>
+ * SOURCE       globals, global*, functions, function*
+ * GLOBAL       name, value
+ * FUNCTION     name, parameters, parameter*, statements, statement*
+ * EXPRESSION   expression
+ * DECLARATION  name, value
+ * ASSIGNMENT   receiver, value
+ * IF           condition, then, statement*, else, statement*
+ * SWITCH       condition, cases, case*
+ * CASE         value, statements, statement*
+ * WHILE        condition, statements, statement*
+ * RETURN       value
+ * LITERAL      constant
+ * GROUP        expression
+ * BINARY       operator, left, right
+ * ACCESS       name, offset
+ * CALL         name, arguments, argument*
+ * LIST         values, value*
+ * </pre>
+ * Names are pool indices of strings. Literals are pool indices of the
+ * {@link Environment.PlcObject} they evaluate to, which are immutable and so
+ * shared by every evaluation.
+ */
+public final class FlatAst {
+
+    static final int SOURCE = 0;
+    static final int GLOBAL = 1;
+    static final int FUNCTION = 2;
+    static final int EXPRESSION = 3;
+    static final int DECLARATION = 4;
+    static final int ASSIGNMENT = 5;
+    static final int IF = 6;
+    static final int SWITCH = 7;
+    static final int CASE = 8;
+    static final int WHILE = 9;
+    static final int RETURN = 10;
+    static final int LITERAL = 11;
+    static final int GROUP = 12;
+    static final int BINARY = 13;
+    static final int ACCESS = 14;
+    static final int CALL = 15;
+    static final int LIST = 16;
+
+    /**
+     * Binary operators, indexed by their operand in {@link #BINARY} nodes. Any
+     * other operator is encoded as -1 minus the pool index of its string.
+     */
+    static final String[] OPERATORS = {"+", "-", "*", "/", "==", "!=", "<", ">", "&&", "||", "^"};
+
+    final int[] code;
+    final Object[] constants;
+    final int root;
+
+    private FlatAst(int[] code, Object[] constants, int root) {
+        this.code = code;
+        this.constants = constants;
+        this.root = root;
+    }
+
+    /**
+     * Lowers {@code ast}, usually an {@link Ast.Source}, to the flat encoding.
+     */
+    public static FlatAst lower(Ast ast) {
+        Lowering lowering = new Lowering();
+        int root = lowering.visit(ast);
+        return new FlatAst(Arrays.copyOf(lowering.code, lowering.size), lowering.constants.toArray(), root);
+    }
+
+    /**
+     * Returns the number of ints in the encoding.
+     */
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * Returns the number of constants in the pool.
+     */
+    public int getConstantCount() {
+        return constants.length;
+    }
+
+    /**
+     * Lowers each node by reserving its ints, lowering its children after it
+     * and filling in their indices, which gives the pre-order layout.
+     */
+    private static final class Lowering implements Ast.Visitor<Integer> {
+
+        private int[] code = new int[256];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<String, Integer> names = new HashMap<>();
+
+        private int reserve(int kind, int length) {
+            if (size + length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + length));
+            }
+            int node = size;
+            code[node] = kind;
+            size += length;
+            return node;
+        }
+
+        private int name(String name) {
+            return names.computeIfAbsent(name, key -> {
+                constants.add(key);
+                return constants.size() - 1;
+            });
+        }
+
+        private int child(Optional<? extends Ast> child) {
+            return child.isPresent() ? visit(child.get()) : -1;
+        }
+
+        /**
+         * Writes a count and the indices of {@code children} at {@code at},
+         * the start of a run reserved for them.
+         */
+        private void children(int at, List<? extends Ast> children) {
+            code[at] = children.size();
+            for (int i = 0; i < children.size(); i++) {
+                int child = visit(children.get(i));
+                code[at + 1 + i] = child;
+            }
+        }
+
+        @Override
+        public Integer visit(Ast.Source ast) {
+            int globals = ast.getGlobals().size();
+            int node = reserve(SOURCE, 3 + globals + ast.getFunctions().size());
+            children(node + 1, ast.getGlobals());
+            children(node + 2 + globals, ast.getFunctions());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Global ast) {
+            int node = reserve(GLOBAL, 3);
+            code[node + 1] = name(ast.getName());
+            int value = child(ast.getValue());
+            code[node + 2] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Function ast) {
+            List<String> parameters = ast.getParameters();
+            int node = reserve(FUNCTION, 4 + parameters.size() + ast.getStatements().size());
+            code[node + 1] = name(ast.getName());
+            code[node + 2] = parameters.size();
+            for (int i = 0; i < parameters.size(); i++) {
+                code[node + 3 + i] = name(parameters.get(i));
+            }
+            children(node + 3 + parameters.size(), ast.getStatements());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Expression ast) {
+            int node = reserve(EXPRESSION, 2);
+            int expression = visit(ast.getExpression());
+            code[node + 1] = expression;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Declaration ast) {
+            int node = reserve(DECLARATION, 3);
+            code[node + 1] = name(ast.getName());
+            int value = child(ast.getValue());
+            code[node + 2] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Assignment ast) {
+            int node = reserve(ASSIGNMENT, 3);
+            int receiver = visit(ast.getReceiver());
+            code[node + 1] = receiver;
+            int value = visit(ast.getValue());
+            code[node + 2] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.If ast) {
+            int then = ast.getThenStatements().size();
+            int node = reserve(IF, 4 + then + ast.getElseStatements().size());
+            int condition = visit(ast.getCondition());
+            code[node + 1] = condition;
+            children(node + 2, ast.getThenStatements());
+            children(node + 3 + then, ast.getElseStatements());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Switch ast) {
+            int node = reserve(SWITCH, 3 + ast.getCases().size());
+            int condition = visit(ast.getCondition());
+            code[node + 1] = condition;
+            children(node + 2, ast.getCases());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Case ast) {
+            int node = reserve(CASE, 3 + ast.getStatements().size());
+            int value = child(ast.getValue());
+            code[node + 1] = value;
+            children(node + 2, ast.getStatements());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.While ast) {
+            int node = reserve(WHILE, 3 + ast.getStatements().size());
+            int condition = visit(ast.getCondition());
+            code[node + 1] = condition;
+            children(node + 2, ast.getStatements());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Return ast) {
+            int node = reserve(RETURN, 2);
+            int value = visit(ast.getValue());
+            code[node + 1] = value;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Literal ast) {
+            int node = reserve(LITERAL, 2);
+            Object literal = ast.getLiteral();
+            constants.add(literal == null ? Environment.NIL : Environment.create(literal));
+            code[node + 1] = constants.size() - 1;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Group ast) {
+            int node = reserve(GROUP, 2);
+            int expression = visit(ast.getExpression());
+            code[node + 1] = expression;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Binary ast) {
+            int node = reserve(BINARY, 4);
+            int operator = Arrays.asList(OPERATORS).indexOf(ast.getOperator());
+            code[node + 1] = operator != -1 ? operator : -1 - name(ast.getOperator());
+            int left = visit(ast.getLeft());
+            code[node + 2] = left;
+            int right = visit(ast.getRight());
+            code[node + 3] = right;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Access ast) {
+            int node = reserve(ACCESS, 3);
+            code[node + 1] = name(ast.getName());
+            int offset = child(ast.getOffset());
+            code[node + 2] = offset;
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Function ast) {
+            int node = reserve(CALL, 3 + ast.getArguments().size());
+            code[node + 1] = name(ast.getName());
+            children(node + 2, ast.getArguments());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.PlcList ast) {
+            int node = reserve(LIST, 2 + ast.getValues().size());
+            children(node + 1, ast.getValues());
+            return node;
+        }
+
+    }
+
+}
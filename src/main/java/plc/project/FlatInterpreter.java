@@ -0,0 +1,239 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Evaluates a {@link FlatAst} directly, with the same results, output and
+ * errors as {@link Interpreter} on the AST it was lowered from. Nodes are read
+ * from the encoding's {@code int[]} by index, so evaluation follows no lists,
+ * optionals or node objects, and literals evaluate to pooled objects rather
+ * than allocating new ones.
+ */
+public final class FlatInterpreter {
+
+    private static final int AND = 8; // Indices into FlatAst.OPERATORS
+    private static final int OR = 9;
+
+    private Scope scope;
+    private int[] code;
+    private Object[] constants;
+
+    public FlatInterpreter(Scope parent) {
+        scope = new Scope(parent);
+        Interpreter.defineBuiltins(scope);
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Evaluates the root of {@code ast}. As with {@link Interpreter}, a source
+     * evaluates to the result of invoking {@code main/0}, an expression to its
+     * value and a statement to {@link Environment#NIL}.
+     */
+    public Environment.PlcObject evaluate(FlatAst ast) {
+        int[] code = this.code;
+        Object[] constants = this.constants;
+        this.code = ast.code;
+        this.constants = ast.constants;
+        try {
+            return evaluate(ast.root);
+        } finally {
+            this.code = code;
+            this.constants = constants;
+        }
+    }
+
+    private Environment.PlcObject evaluate(int node) {
+        switch (code[node]) {
+            case FlatAst.SOURCE:
+                return evaluateSource(node);
+            case FlatAst.GLOBAL:
+            case FlatAst.DECLARATION:
+                if (code[node + 2] != -1) {
+                    scope.defineVariable(name(node + 1), true, evaluate(code[node + 2]));
+                } else {
+                    scope.defineVariable(name(node + 1), true, Environment.NIL);
+                }
+                return Environment.NIL;
+            case FlatAst.FUNCTION:
+                return defineFunction(node);
+            case FlatAst.EXPRESSION:
+                evaluate(code[node + 1]);
+                return Environment.NIL;
+            case FlatAst.ASSIGNMENT:
+                return evaluateAssignment(node);
+            case FlatAst.IF:
+                if (Interpreter.requireType(Boolean.class, evaluate(code[node + 1]))) {
+                    execute(node + 2);
+                } else {
+                    execute(node + 3 + code[node + 2]);
+                }
+                return Environment.NIL;
+            case FlatAst.SWITCH:
+                return evaluateSwitch(node);
+            case FlatAst.CASE:
+                execute(node + 2);
+                return Environment.NIL;
+            case FlatAst.WHILE:
+                while (Interpreter.requireType(Boolean.class, evaluate(code[node + 1]))) {
+                    try {
+                        scope = new Scope(scope);
+                        execute(node + 2);
+                    } finally {
+                        scope = scope.getParent();
+                    }
+                }
+                return Environment.NIL;
+            case FlatAst.RETURN:
+                throw new Interpreter.Return(evaluate(code[node + 1]));
+            case FlatAst.LITERAL:
+                return (Environment.PlcObject) constants[code[node + 1]];
+            case FlatAst.GROUP:
+                return evaluate(code[node + 1]);
+            case FlatAst.BINARY:
+                return evaluateBinary(node);
+            case FlatAst.ACCESS:
+                if (code[node + 2] != -1) {
+                    Environment.PlcObject list = scope.lookupVariable(name(node + 1)).getValue();
+                    BigInteger offset = Interpreter.requireType(BigInteger.class, evaluate(code[node + 2]));
+                    return Environment.create(Interpreter.requireType(List.class, list).get(offset.intValue()));
+                }
+                return scope.lookupVariable(name(node + 1)).getValue();
+            case FlatAst.CALL: {
+                int count = code[node + 2];
+                List<Environment.PlcObject> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    arguments.add(evaluate(code[node + 3 + i]));
+                }
+                return scope.lookupFunction(name(node + 1), count).invoke(arguments);
+            }
+            case FlatAst.LIST: {
+                int count = code[node + 1];
+                List<Object> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(evaluate(code[node + 2 + i]).getValue());
+                }
+                return Environment.create(values);
+            }
+            default:
+                throw new AssertionError("Unknown node kind: " + code[node] + ".");
+        }
+    }
+
+    private Environment.PlcObject evaluateSource(int node) {
+        int globals = code[node + 1];
+        for (int i = 0; i < globals; i++) {
+            evaluate(code[node + 2 + i]);
+        }
+        int functions = node + 2 + globals;
+        for (int i = 0; i < code[functions]; i++) {
+            evaluate(code[functions + 1 + i]);
+        }
+        return scope.lookupFunction("main", 0).invoke(new ArrayList<>());
+    }
+
+    /**
+     * Defines the function at {@code node} in the current scope. As in
+     * {@link Interpreter}, calls run in a scope nested in the caller's.
+     */
+    private Environment.PlcObject defineFunction(int node) {
+        int[] code = this.code;
+        Object[] constants = this.constants;
+        int parameters = code[node + 2];
+        scope.defineFunction(name(node + 1), parameters, args -> {
+            int[] callerCode = this.code;
+            Object[] callerConstants = this.constants;
+            this.code = code;
+            this.constants = constants;
+            Scope functionScope = new Scope(scope);
+            scope = functionScope;
+            for (int i = 0; i < parameters; i++) {
+                functionScope.defineVariable(name(node + 3 + i), true, args.get(i));
+            }
+            try {
+                execute(node + 3 + parameters);
+                return Environment.NIL;
+            } catch (Interpreter.Return returnValue) {
+                return returnValue.value;
+            } finally {
+                scope = scope.getParent();
+                this.code = callerCode;
+                this.constants = callerConstants;
+            }
+        });
+        return Environment.NIL;
+    }
+
+    private Environment.PlcObject evaluateAssignment(int node) {
+        Environment.PlcObject value = evaluate(code[node + 2]);
+        int receiver = code[node + 1];
+        if (code[receiver] != FlatAst.ACCESS) {
+            throw new RuntimeException("Invalid left-hand side expression for assignment.");
+        }
+        Environment.Variable variable = scope.lookupVariable(name(receiver + 1));
+        if (variable.getValue().getValue() instanceof List) {
+            int offset = code[receiver + 2];
+            if (offset != -1 && code[offset] == FlatAst.LITERAL) {
+                Environment.PlcObject literal = (Environment.PlcObject) constants[code[offset + 1]];
+                int index = ((BigInteger) (literal == Environment.NIL ? null : literal.getValue())).intValue();
+                Interpreter.setElement(variable.getValue(), index, value);
+            } else {
+                throw new RuntimeException("Invalid offset expression for list assignment.");
+            }
+        } else {
+            variable.setValue(value);
+        }
+        return Environment.NIL;
+    }
+
+    private Environment.PlcObject evaluateSwitch(int node) {
+        Environment.PlcObject condition = evaluate(code[node + 1]);
+        for (int i = 0; i < code[node + 2]; i++) {
+            int switchCase = code[node + 3 + i];
+            if (code[switchCase + 1] == -1) {
+                execute(switchCase + 2);
+                return Environment.NIL;
+            }
+            Environment.PlcObject value = evaluate(code[switchCase + 1]);
+            if (Objects.equals(value.getValue(), condition.getValue())) {
+                execute(switchCase + 2);
+                return Environment.NIL;
+            }
+        }
+        return Environment.NIL;
+    }
+
+    private Environment.PlcObject evaluateBinary(int node) {
+        int operator = code[node + 1];
+        Environment.PlcObject left = evaluate(code[node + 2]);
+        if (operator == AND || operator == OR) {
+            Boolean leftBooleanValue = Interpreter.requireType(Boolean.class, left);
+            if (operator == AND && !leftBooleanValue || operator == OR && leftBooleanValue) {
+                return Environment.create(leftBooleanValue);
+            }
+        }
+        String name = operator >= 0 ? FlatAst.OPERATORS[operator] : (String) constants[-1 - operator];
+        return Interpreter.binary(name, left, evaluate(code[node + 3]));
+    }
+
+    /**
+     * Executes the statements in the run of indices starting with their count
+     * at {@code at}.
+     */
+    private void execute(int at) {
+        int count = code[at];
+        for (int i = 1; i <= count; i++) {
+            evaluate(code[at + i]);
+        }
+    }
+
+    private String name(int at) {
+        return (String) constants[code[at]];
+    }
+
+}
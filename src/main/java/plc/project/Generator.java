@@ -7,10 +7,20 @@ import java.util.List;
 public final class Generator implements Ast.Visitor<Void> {
 
     private final PrintWriter writer;
+    private final Annotations annotations;
     private int indent = 0;
 
     public Generator(PrintWriter writer) {
+        this(writer, Annotations.IN_PLACE);
+    }
+
+    /**
+     * Creates a generator for an AST analyzed into {@code annotations} by
+     * {@link Analyzer#Analyzer(Scope, Annotations)}.
+     */
+    public Generator(PrintWriter writer, Annotations annotations) {
         this.writer = writer;
+        this.annotations = annotations;
     }
 
     private void print(Object... objects) {
@@ -80,7 +90,7 @@ public final class Generator implements Ast.Visitor<Void> {
         if (!ast.getMutable()) {
             print("final ");
         }
-        print(ast.getVariable().getType().getJvmName());
+        print(annotations.getVariable(ast).getType().getJvmName());
         if (ast.getValue().get() instanceof Ast.Expression.PlcList) {
             print("[]");
         }
@@ -3,7 +3,9 @@ package plc.project;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -12,9 +14,30 @@ import java.util.stream.Collectors;
 public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     private Scope scope = new Scope(null);
+    private final Annotations annotations;
+    private Frame frame = null;
 
     public Interpreter(Scope parent) {
+        this(parent, Annotations.IN_PLACE);
+    }
+
+    /**
+     * Creates an interpreter for an AST analyzed into {@code annotations}.
+     * Variables with a lexical address are kept in frames indexed by their
+     * slot instead of being looked up in scopes by name, and analyzed
+     * functions and blocks create no scopes at all.
+     */
+    public Interpreter(Scope parent, Annotations annotations) {
+        this.annotations = annotations;
         scope = new Scope(parent);
+        defineBuiltins(scope);
+    }
+
+    /**
+     * Defines the functions built into the language in {@code scope}, shared
+     * with {@link FlatInterpreter}.
+     */
+    static void defineBuiltins(Scope scope) {
         scope.defineFunction("print", 1, args -> {
             System.out.println(args.get(0).getValue());
             return Environment.NIL;
@@ -42,6 +65,10 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Source ast) {
         //throw new UnsupportedOperationException(); //TODO
+        int frameSize = annotations.getFrameSize(ast);
+        if (frameSize != -1) {
+            frame = new Frame(new Environment.Variable[frameSize]);
+        }
         for (Ast.Global global : ast.getGlobals()) {
             visit(global);
         }
@@ -54,11 +81,15 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Global ast) {
         // throw new UnsupportedOperationException(); //TODO
+        Environment.PlcObject value = Environment.NIL;
         if (ast.getValue().isPresent()) {
-            Environment.PlcObject value = visit(ast.getValue().get());
-            scope.defineVariable(ast.getName(), true, value); // Assuming all global variables are mutable
-        } else {
-            scope.defineVariable(ast.getName(), true, Environment.NIL); // Assuming all global variables are mutable
+            value = visit(ast.getValue().get());
+        }
+        // Assuming all global variables are mutable, and kept in the scope even with a slot
+        Environment.Variable variable = scope.defineVariable(ast.getName(), ast.getName(), Environment.Type.ANY, true, value);
+        Environment.Address address = annotations.getAddress(ast);
+        if (address != null && frame != null) {
+            frame.variables[address.getSlot()] = variable;
         }
         return Environment.NIL;
 
@@ -67,12 +98,26 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Function ast) {
         // throw new UnsupportedOperationException(); //TODO
+        int frameSize = annotations.getFrameSize(ast);
+        Frame parent = frame;
+        ArrayDeque<Frame> pool = new ArrayDeque<>(); // Free frames, one per active call at most
         scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> {
-            Scope functionScope = new Scope(scope); // Create a new scope for the function
-            scope = functionScope;
-
-            for (int i = 0; i < ast.getParameters().size(); i++) {
-                functionScope.defineVariable(ast.getParameters().get(i), true, args.get(i));
+            Scope caller = scope;
+            Frame callerFrame = frame;
+
+            if (frameSize != -1) {
+                // Analyzed functions run in a pooled frame, parameters first, instead of a new scope
+                frame = pool.isEmpty() ? new Frame(frameSize, parent) : pool.pop();
+                for (int i = 0; i < ast.getParameters().size(); i++) {
+                    frame.values[i] = args.get(i);
+                }
+            } else {
+                Scope functionScope = new Scope(scope); // Create a new scope for the function
+                scope = functionScope;
+                frame = null;
+                for (int i = 0; i < ast.getParameters().size(); i++) {
+                    functionScope.defineVariable(ast.getParameters().get(i), true, args.get(i));
+                }
             }
             try {
                 for (Ast.Statement statement : ast.getStatements()) {
@@ -83,7 +128,12 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 return returnValue.value;
             }
             finally {
-                scope = scope.getParent();
+                if (frameSize != -1) {
+                    Arrays.fill(frame.values, null);
+                    pool.push(frame);
+                }
+                scope = caller;
+                frame = callerFrame;
             }
         });
         return Environment.NIL;
@@ -106,11 +156,16 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         Optional optional = ast.getValue();
         Boolean present = optional.isPresent();
 
+        Environment.PlcObject value = Environment.NIL;
         if (present) {
             Ast.Expression expr = (Ast.Expression) optional.get();
-            scope.defineVariable(ast.getName(), true, visit(expr));
+            value = visit(expr);
+        }
+        Environment.Address address = annotations.getAddress(ast);
+        if (address != null && frame != null) {
+            frame.values[address.getSlot()] = value;
         } else {
-            scope.defineVariable(ast.getName(), true, Environment.NIL);
+            scope.defineVariable(ast.getName(), true, value);
         }
         return Environment.NIL;
     }
@@ -121,32 +176,27 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
         Environment.PlcObject value = visit(ast.getValue());
 
-        // Retrieve the name of the variable from the left-hand side expression
-        String variableName;
-        if (ast.getReceiver() instanceof Ast.Expression.Access) {
-            variableName = ((Ast.Expression.Access) ast.getReceiver()).getName();
-        } else {
+        // Retrieve the variable from the left-hand side expression
+        if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
             // Handle other types of expressions for the left-hand side (if any)
             throw new RuntimeException("Invalid left-hand side expression for assignment.");
         }
-
-        // Retrieve the variable from the scope
-        Environment.Variable variable = scope.lookupVariable(variableName);
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        Environment.PlcObject current = load(receiver);
 
         // Check if the variable is a list
-        if (variable.getValue().getValue() instanceof List) {
+        if (current.getValue() instanceof List) {
             // Update the list value with the new element
-            List<Object> list = (List<Object>) variable.getValue().getValue();
-            Optional<Ast.Expression> offset = ((Ast.Expression.Access) ast.getReceiver()).getOffset();
+            Optional<Ast.Expression> offset = receiver.getOffset();
             if (offset.isPresent() && offset.get() instanceof Ast.Expression.Literal) {
                 int index = ((BigInteger) ((Ast.Expression.Literal) offset.get()).getLiteral()).intValue();
-                list.set(index, value.getValue());
+                setElement(current, index, value);
             } else {
                 throw new RuntimeException("Invalid offset expression for list assignment.");
             }
         } else {
             // If it's not a list, update the variable value directly
-            variable.setValue(value);
+            store(receiver, value);
         }
 
         // Return Environment.NIL
@@ -159,9 +209,6 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         // throw new UnsupportedOperationException(); //TODO
         boolean conditionValue = requireType(Boolean.class, visit(ast.getCondition()));
 
-        // Create a new scope for the if statement
-        Scope ifScope = new Scope(scope);
-
         // Execute the statements in the 'then' block if the condition is true
         if (conditionValue) {
             for (Ast.Statement statement : ast.getThenStatements()) {
@@ -221,16 +268,21 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Statement.While ast) {
       //  throw new UnsupportedOperationException(); //TODO (in lecture)
+        boolean scoped = frame == null; // Analyzed blocks already have slots in the frame
         while (requireType(Boolean.class, visit(ast.getCondition()))) {
             try {
-                scope = new Scope(scope);
+                if (scoped) {
+                    scope = new Scope(scope);
+                }
                 // added is this right?
                 for (Ast.Statement statement : ast.getStatements()) {
                     visit(statement);
                 }
             } finally {
                 // added is this right?
-                scope = scope.getParent();
+                if (scoped) {
+                    scope = scope.getParent();
+                }
 
             }
         }
@@ -276,9 +328,87 @@ return Environment.NIL;
                 return Environment.create(leftBooleanValue);
             }
         }
-        Environment.PlcObject right = visit(ast.getRight());
+        return binary(ast.getOperator(), left, visit(ast.getRight()));
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Access ast) {
+        //throw new UnsupportedOperationException(); //TODO
+        Optional<Ast.Expression> offset = ast.getOffset();
 
-        switch (ast.getOperator()) {
+        if (offset.isPresent()) {
+            Environment.PlcObject list = load(ast);
+            BigInteger offsetValue = requireType(BigInteger.class, visit(offset.get()));
+            return Environment.create(requireType(List.class, list).get(offsetValue.intValue()));
+        }
+
+        return load(ast);
+
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Function ast) {
+        //throw new UnsupportedOperationException(); //TODO
+        List<Environment.PlcObject> arguments = ast.getArguments().stream().map(this::visit).collect(Collectors.toList());
+        Environment.Function function = scope.lookupFunction(ast.getName(), arguments.size());
+        return function.invoke(arguments);
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.PlcList ast) {
+        // throw new UnsupportedOperationException(); //TODO
+        List<Object> values = ast.getValues().stream().map(this::visit)
+                .map(Environment.PlcObject::getValue)
+                .collect(Collectors.toList());
+        return Environment.create(values);
+    }
+
+    /**
+     * Returns the value of the variable accessed by {@code ast}, from the
+     * frame at its lexical address if it has one and otherwise from the scope
+     * by name.
+     */
+    private Environment.PlcObject load(Ast.Expression.Access ast) {
+        Environment.Address address = annotations.getAddress(ast);
+        Frame frame = address != null ? frame(address) : null;
+        if (frame == null) {
+            return scope.lookupVariable(ast.getName()).getValue();
+        } else if (frame.values != null) {
+            return frame.values[address.getSlot()];
+        }
+        return frame.variables[address.getSlot()].getValue();
+    }
+
+    /**
+     * Sets the value of the variable accessed by {@code ast}, as with
+     * {@link #load(Ast.Expression.Access)}.
+     */
+    private void store(Ast.Expression.Access ast, Environment.PlcObject value) {
+        Environment.Address address = annotations.getAddress(ast);
+        Frame frame = address != null ? frame(address) : null;
+        if (frame == null) {
+            scope.lookupVariable(ast.getName()).setValue(value);
+        } else if (frame.values != null) {
+            frame.values[address.getSlot()] = value;
+        } else {
+            frame.variables[address.getSlot()].setValue(value);
+        }
+    }
+
+    private Frame frame(Environment.Address address) {
+        Frame frame = this.frame;
+        for (int i = address.getDepth(); i > 0 && frame != null; i--) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    /**
+     * Evaluates binary {@code operator} on the values of both operands, once
+     * any short circuit has been taken.
+     */
+    static Environment.PlcObject binary(String operator, Environment.PlcObject left, Environment.PlcObject right) {
+        switch (operator) {
             case "+":
                 if (left.getValue() instanceof String || right.getValue() instanceof String) {
                     return Environment.create(left.getValue().toString() + right.getValue().toString());
@@ -289,7 +419,7 @@ return Environment.NIL;
                 else if (left.getValue() instanceof BigDecimal && right.getValue () instanceof BigDecimal) {
                     return Environment.create(requireType(BigDecimal.class, left).add(requireType(BigDecimal.class, right)));
                 }
-                else throw new RuntimeException("Operator Not Defined For Input Provided" + ast.getOperator());
+                else throw new RuntimeException("Operator Not Defined For Input Provided" + operator);
             case "-":
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger ) {
                     return Environment.create(requireType(BigInteger.class, left).subtract(requireType(BigInteger.class, right)));
@@ -297,7 +427,7 @@ return Environment.NIL;
                 else if (left.getValue() instanceof BigDecimal && right.getValue () instanceof BigDecimal) {
                     return Environment.create(requireType(BigDecimal.class, left).subtract(requireType(BigDecimal.class, right)));
                 }
-                else throw new RuntimeException("Operator Not Defined For Input Provided" + ast.getOperator());
+                else throw new RuntimeException("Operator Not Defined For Input Provided" + operator);
             case "*":
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger ) {
                     return Environment.create(requireType(BigInteger.class, left).multiply(requireType(BigInteger.class, right)));
@@ -305,7 +435,7 @@ return Environment.NIL;
                 else if (left.getValue() instanceof BigDecimal && right.getValue () instanceof BigDecimal) {
                     return Environment.create(requireType(BigDecimal.class, left).multiply(requireType(BigDecimal.class, right)));
                 }
-                else throw new RuntimeException("Operator Not Defined For Input Provided" + ast.getOperator());
+                else throw new RuntimeException("Operator Not Defined For Input Provided" + operator);
             case "/":
                 if (requireType(Number.class, right).doubleValue() == 0) {
                     throw new ArithmeticException("Division by zero");
@@ -316,7 +446,7 @@ return Environment.NIL;
                 else if (left.getValue() instanceof BigDecimal && right.getValue () instanceof BigDecimal) {
                     return Environment.create(requireType(BigDecimal.class, left).divide(requireType(BigDecimal.class, right),RoundingMode.HALF_EVEN));
                 }
-                else throw new RuntimeException("Operator Not Defined For Input Provided" + ast.getOperator());
+                else throw new RuntimeException("Operator Not Defined For Input Provided" + operator);
 
             case "==":
                 return Environment.create(Objects.equals(left.getValue(), right.getValue()));
@@ -337,48 +467,22 @@ return Environment.NIL;
                 BigInteger exponent = requireType(BigInteger.class, right);
                 return Environment.create(base.pow(exponent.intValue()));
             default:
-                throw new RuntimeException("Unknown operator: " + ast.getOperator());
+                throw new RuntimeException("Unknown operator: " + operator);
         }
     }
 
-    @Override
-    public Environment.PlcObject visit(Ast.Expression.Access ast) {
-        //throw new UnsupportedOperationException(); //TODO
-        String name = ast.getName();
-        Optional<Ast.Expression> offset = ast.getOffset();
-
-        if (offset.isPresent()) {
-            Environment.PlcObject list = scope.lookupVariable(ast.getName()).getValue();
-            BigInteger offsetValue = requireType(BigInteger.class, visit(offset.get()));
-            return Environment.create(requireType(List.class, list).get(offsetValue.intValue()));
-        }
-
-        Environment.Variable variable = scope.lookupVariable(name);
-        return variable.getValue();
-
-    }
-
-    @Override
-    public Environment.PlcObject visit(Ast.Expression.Function ast) {
-        //throw new UnsupportedOperationException(); //TODO
-        List<Environment.PlcObject> arguments = ast.getArguments().stream().map(this::visit).collect(Collectors.toList());
-        Environment.Function function = scope.lookupFunction(ast.getName(), arguments.size());
-        return function.invoke(arguments);
-    }
-
-    @Override
-    public Environment.PlcObject visit(Ast.Expression.PlcList ast) {
-        // throw new UnsupportedOperationException(); //TODO
-        List<Object> values = ast.getValues().stream().map(this::visit)
-                .map(Environment.PlcObject::getValue)
-                .collect(Collectors.toList());
-        return Environment.create(values);
+    /**
+     * Sets element {@code index} of a list to {@code value}, as assigning to
+     * an access with an offset does.
+     */
+    static void setElement(Environment.PlcObject list, int index, Environment.PlcObject value) {
+        ((List<Object>) list.getValue()).set(index, value.getValue());
     }
 
     /**
      * Helper function to ensure an object is of the appropriate type.
      */
-    private static <T> T requireType(Class<T> type, Environment.PlcObject object) {
+    static <T> T requireType(Class<T> type, Environment.PlcObject object) {
         if (type.isInstance(object.getValue())) {
             return type.cast(object.getValue());
         } else {
@@ -387,13 +491,41 @@ return Environment.NIL;
     }
 
     /**
-     * Exception class for returning values.
+     * The slots of a function call or a source's globals, indexed as the
+     * analyzer assigned them. A call's frame holds values directly, sized for
+     * the most variables the function has live at once, while the globals'
+     * holds the variables defined for them in the scope so both stay in step.
+     */
+    private static final class Frame {
+
+        private final Environment.PlcObject[] values;
+        private final Environment.Variable[] variables;
+        private final Frame parent;
+
+        private Frame(int size, Frame parent) {
+            this.values = new Environment.PlcObject[size];
+            this.variables = null;
+            this.parent = parent;
+        }
+
+        private Frame(Environment.Variable[] variables) {
+            this.values = null;
+            this.variables = variables;
+            this.parent = null;
+        }
+
+    }
+
+    /**
+     * Exception class for returning values, without a stack trace since it is
+     * always caught. Also thrown by {@link FlatInterpreter}.
      */
-    private static class Return extends RuntimeException {
+    static class Return extends RuntimeException {
 
-        private final Environment.PlcObject value;
+        final Environment.PlcObject value;
 
-        private Return(Environment.PlcObject value) {
+        Return(Environment.PlcObject value) {
+            super(null, null, false, false);
             this.value = value;
         }
 
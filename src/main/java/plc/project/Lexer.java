@@ -1,9 +1,31 @@
 package plc.project;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
 
 /**
  * The lexer works through three main functions:
@@ -19,12 +41,67 @@ import java.util.Map;
  * The {@link #peek(String...)} and {@link #match(String...)} functions are * helpers you need to use, they will make the implementation a lot easier. */
 public final class Lexer {
 
+    static final CharClass IDENTIFIER_START = CharClass.range('A', 'Z')
+            .or(CharClass.range('a', 'z'))
+            .or(CharClass.of("@_"));
+    static final CharClass IDENTIFIER_PART = CharClass.range('A', 'Z')
+            .or(CharClass.range('a', 'z'))
+            .or(CharClass.range('0', '9'))
+            .or(CharClass.of("_-"));
+    static final CharClass DIGIT = CharClass.range('0', '9');
+    static final CharClass NONZERO_DIGIT = CharClass.range('1', '9');
+    static final CharClass ESCAPE = CharClass.of("bnrt'\"\\");
+
+    private static final Map<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+
     private final CharStream chars;
+    private Operators operators = Operators.DEFAULT;
 
     public Lexer(String input) {
         chars = new CharStream(input);
     }
 
+    /**
+     * Creates a lexer reading from {@code reader} through a bounded buffer. Use
+     * {@link #tokens()} to lex without materializing the whole token list.
+     */
+    public Lexer(Reader reader) {
+        chars = new CharStream(reader);
+    }
+
+    /**
+     * Creates a lexer reading UTF-8 input from {@code channel}, as with
+     * {@link #Lexer(Reader)}.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a lexer over UTF-8 encoded {@code bytes}, typically a
+     * {@link MappedByteBuffer}. The input is never decoded as a whole: token
+     * indices are byte offsets and literals are only decoded when requested
+     * through {@link Token#getLiteral()}.
+     */
+    public Lexer(ByteBuffer bytes) {
+        chars = new CharStream(bytes);
+    }
+
+    private Lexer(CharStream chars) {
+        this.chars = chars;
+    }
+
+    /**
+     * Creates a lexer over the memory-mapped contents of a UTF-8 file, as with
+     * {@link #Lexer(ByteBuffer)}. The mapping stays valid after the channel is
+     * closed.
+     */
+    public static Lexer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
     /**
      * Repeatedly lexes the input using {@link #lexToken()}, also skipping over
      * whitespace where appropriate.
@@ -36,8 +113,7 @@ public final class Lexer {
         while (chars.has(0)) {
             char current = chars.get(0);
             if (Character.isWhitespace(current)) {
-                chars.advance(); // Skip whitespace
-                chars.skip();
+                chars.skipWhitespace();
             } else {
                 tokens.add(lexToken());
             }
@@ -45,6 +121,243 @@ public final class Lexer {
         return tokens;
     }
 
+    /**
+     * Lexes the input in the same way as {@link #lex()}, splitting in-memory
+     * input of more than {@code chunkSize} chars into chunks that are lexed in
+     * parallel on the common {@link ForkJoinPool}.
+     * <p>
+     * Chunks end after a newline outside of string and character literals,
+     * found by a pre-scan of the input. Tokens never span such a newline and
+     * lexing starts afresh after whitespace, so each chunk lexes exactly as it
+     * would sequentially, with absolute token indices. If several chunks fail,
+     * the exception from the earliest is thrown, as {@link #lex()} would.
+     */
+    public List<Token> lexParallel(int chunkSize) {
+        if (chars.reader != null) {
+            return lex();
+        }
+        List<Integer> boundaries = findChunkBoundaries(chunkSize);
+        if (boundaries.size() == 2) {
+            return lex();
+        }
+        List<ForkJoinTask<List<Token>>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.size(); i++) {
+            Lexer chunk = new Lexer(new CharStream(chars, boundaries.get(i), boundaries.get(i + 1)));
+            chunk.operators = operators;
+            tasks.add(ForkJoinPool.commonPool().submit(chunk::lex));
+        }
+        List<Token> tokens = new ArrayList<>();
+        for (ForkJoinTask<List<Token>> task : tasks) {
+            try {
+                tokens.addAll(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        chars.index = chars.end;
+        chars.skip();
+        return tokens;
+    }
+
+    /**
+     * Returns the chunk boundaries from the current index to the end of the
+     * input, including both ends. Literals are tracked the way
+     * {@link #lexString()} and {@link #lexCharacter()} consume them.
+     */
+    private List<Integer> findChunkBoundaries(int chunkSize) {
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(chars.index);
+        int next = chars.index + chunkSize;
+        int i = 0;
+        while (chars.has(i)) {
+            char c = chars.get(i);
+            if (c == '"') {
+                i++;
+                while (chars.has(i) && chars.get(i) != '"') {
+                    i += chars.get(i) == '\\' ? 2 : 1;
+                }
+                i++;
+            } else if (c == '\'') {
+                i += chars.has(i + 1) && chars.get(i + 1) == '\\' ? 3 : 2;
+                while (chars.bytes != null && chars.has(i) && (chars.get(i) & 0xC0) == 0x80) {
+                    i++; // Continuation bytes of a UTF-8 character
+                }
+                i++;
+            } else {
+                i++;
+                if (c == '\n' && chars.index + i >= next && chars.has(i)) {
+                    boundaries.add(chars.index + i);
+                    next = chars.index + i + chunkSize;
+                }
+            }
+        }
+        boundaries.add(chars.end);
+        return boundaries;
+    }
+
+    /**
+     * Lexes the input, which is the result of replacing {@code removed} chars
+     * at {@code offset} of the text {@code previous} was lexed from with
+     * {@code inserted}, re-lexing only the region damaged by the edit.
+     * <p>
+     * Lexing restarts at the first token that ends close enough to the edit
+     * for its lookahead to have seen it, and stops as soon as a new token
+     * starts where an old token did past the edit, since the lexer keeps no
+     * state between tokens. The returned list is a view reusing
+     * {@code previous}, with tokens after the edit shifted on access. Input
+     * read from a reader or as UTF-8 bytes is lexed in full.
+     */
+    public List<Token> relex(List<Token> previous, int offset, int removed, String inserted) {
+        if (chars.buffer == null || chars.reader != null) {
+            return lex();
+        }
+        int lookahead = Math.max(1, operators.maxLength);
+        int low = 0, high = previous.size();
+        while (low < high) { // First token whose lookahead reaches the edit
+            int mid = (low + high) >>> 1;
+            Token token = previous.get(mid);
+            if (token.getIndex() + token.getLiteral().length() + lookahead <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int restart = low;
+        int delta = inserted.length() - removed;
+        int resume = previous.size();
+        int start = restart < previous.size() ? Math.min(previous.get(restart).getIndex(), offset) : offset;
+        Lexer lexer = new Lexer(new CharStream(chars, Math.min(start, chars.end), chars.end));
+        lexer.operators = operators;
+        List<Token> tokens = new ArrayList<>();
+        Iterator<Token> iterator = lexer.tokens();
+        int old = restart;
+        while (iterator.hasNext()) {
+            Token token = iterator.next();
+            if (token.getIndex() >= offset + inserted.length()) {
+                while (old < previous.size() && previous.get(old).getIndex() + delta < token.getIndex()) {
+                    old++;
+                }
+                if (old < previous.size() && previous.get(old).getIndex() + delta == token.getIndex()) {
+                    resume = old;
+                    break;
+                }
+            }
+            tokens.add(token);
+        }
+        chars.index = chars.end;
+        chars.skip();
+        return new RelexedList(previous, restart, tokens, resume, delta);
+    }
+
+    /**
+     * The result of {@link #relex(List, int, int, String)}: a prefix of the
+     * previous tokens, the re-lexed tokens, and the rest of the previous tokens
+     * shifted by the change in length. Chains of views are flattened once they
+     * grow deep, which keeps access cheap across many edits.
+     */
+    private static final class RelexedList extends AbstractList<Token> implements RandomAccess {
+
+        private static final int MAX_DEPTH = 16;
+
+        private final List<Token> previous;
+        private final int restart;
+        private final List<Token> tokens;
+        private final int resume;
+        private final int delta;
+        private final int depth;
+
+        private RelexedList(List<Token> previous, int restart, List<Token> tokens, int resume, int delta) {
+            int depth = previous instanceof RelexedList ? ((RelexedList) previous).depth + 1 : 1;
+            if (depth > MAX_DEPTH) {
+                previous = new ArrayList<>(previous);
+                depth = 1;
+            }
+            this.previous = previous;
+            this.restart = restart;
+            this.tokens = tokens;
+            this.resume = resume;
+            this.delta = delta;
+            this.depth = depth;
+        }
+
+        @Override
+        public Token get(int index) {
+            if (index < restart) {
+                return previous.get(index);
+            } else if (index < restart + tokens.size()) {
+                return tokens.get(index - restart);
+            }
+            Token token = previous.get(index - restart - tokens.size() + resume);
+            return delta == 0 ? token : new Token(token.getType(), token.getLiteral(), token.getIndex() + delta, token.cachedValue());
+        }
+
+        @Override
+        public int size() {
+            return restart + tokens.size() + previous.size() - resume;
+        }
+
+    }
+
+    /**
+     * Sets the multi-character operators recognized by {@link #lexOperator()},
+     * which defaults to {@link Operators#DEFAULT}.
+     */
+    public void setOperators(Operators operators) {
+        this.operators = operators;
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but records the tokens
+     * in a compact {@link TokenBuffer} instead of allocating a {@link Token}
+     * object per token.
+     */
+    public TokenBuffer lexBuffer() {
+        TokenBuffer tokens = chars.startBuffer();
+        try {
+            while (chars.has(0)) {
+                if (Character.isWhitespace(chars.get(0))) {
+                    chars.skipWhitespace();
+                } else {
+                    lexToken();
+                }
+            }
+        } finally {
+            chars.sink = null;
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns an iterator that lexes tokens on demand, skipping whitespace in
+     * the same way as {@link #lex()}. Only the token being lexed is buffered,
+     * so memory stays flat regardless of the input size.
+     */
+    public Iterator<Token> tokens() {
+        return new Iterator<Token>() {
+
+            @Override
+            public boolean hasNext() {
+                chars.skipWhitespace();
+                return chars.has(0);
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return lexToken();
+            }
+
+        };
+    }
+
     /**
      * This method determines the type of the next token, delegating to the
      * appropriate lex method. As such, it is best for this method to not change
@@ -59,13 +372,13 @@ public final class Lexer {
             chars.advance();
         }
 
-        if (peek("[A-Za-z@_][A-Za-z0-9_-]*")) {
+        if (peek(IDENTIFIER_START)) {
             return lexIdentifier();
-        } else if (peek("-|\\d")) {
+        } else if (peek('-') || peek(DIGIT)) {
             return lexNumber();
-        } else if (peek("\\'")) {
+        } else if (peek('\'')) {
             return lexCharacter();
-        } else if (peek("[\"]")) {
+        } else if (peek('"')) {
             return lexString();
         } else {
             return lexOperator();
@@ -75,18 +388,14 @@ public final class Lexer {
 
 
     public Token lexIdentifier() {
-        StringBuilder identifier = new StringBuilder(); // Initialize StringBuilder to store the identifier
-
         // Skip whitespace
         while (chars.has(0) && Character.isWhitespace(chars.get(0))) {
             chars.advance();
         }
 
-        // Append characters to the identifier while they match the identifier pattern
-        while (peek("[A-Za-z0-9_\\-]")) {
-            identifier.append(chars.get(0)); // Append current character to the identifier
-            chars.advance(); // Move to the next character
-        }
+        // The leading character may be '@', which is not an identifier part
+        match(IDENTIFIER_START);
+        chars.advanceWhile(IDENTIFIER_PART); // Consume the rest of the identifier
 
         // Emit identifier token
         return chars.emit(Token.Type.IDENTIFIER);
@@ -101,48 +410,48 @@ public final class Lexer {
         boolean hasDigits = false;
         boolean hasDecimal = false;
 
-        if (match("0")) {
+        if (match('0')) {
             hasDigits = true; // If the number starts with '0', it has digits
-            if (peek("\\.")) {
+            if (peek('.')) {
                 hasDecimal = true; // If there's a '.', it's a decimal number
-                match("\\."); // Consume the decimal point
-                if (!match("[0-9]")) {
+                match('.'); // Consume the decimal point
+                if (!match(DIGIT)) {
                     // If there are no digits following the decimal point, it's an integer
                     return chars.emit(Token.Type.INTEGER);
                 }
-                while (match("[0-9]")); // Consume remaining digits
+                chars.advanceWhile(DIGIT); // Consume remaining digits
             }
-        } else if (peek("-")) {
+        } else if (peek('-')) {
             // Check if the negative sign is followed by digits
             chars.advance(); // Move past the negative sign
             isNegative = true;
-            if (!match("[0-9]")) {
+            if (!match(DIGIT)) {
                 // If the hyphen is not followed by a digit, it's an operator
                 return chars.emit(Token.Type.OPERATOR);
             }
             // If the hyphen is followed by a digit, proceed to parse the negative integer
             hasDigits = true;
-            while (match("[0-9]")); // Consume remaining digits
-            if (peek("\\.")) {
+            chars.advanceWhile(DIGIT); // Consume remaining digits
+            if (peek('.')) {
                 hasDecimal = true; // If there's a '.', it's a decimal number
-                match("\\."); // Consume the decimal point
-                if (!match("[0-9]")) {
+                match('.'); // Consume the decimal point
+                if (!match(DIGIT)) {
                     // If there are no digits following the decimal point, it's an integer
                     return chars.emit(Token.Type.INTEGER);
                 }
-                while (match("[0-9]")); // Consume remaining digits
+                chars.advanceWhile(DIGIT); // Consume remaining digits
             }
-        } else if (match("[1-9]")) {
+        } else if (match(NONZERO_DIGIT)) {
             hasDigits = true; // If the number starts with a non-zero digit, it has digits
-            while (match("[0-9]")); // Consume remaining digits
-            if (peek("\\.")) {
+            chars.advanceWhile(DIGIT); // Consume remaining digits
+            if (peek('.')) {
                 hasDecimal = true; // If there's a '.', it's a decimal number
-                match("\\."); // Consume the decimal point
-                if (!match("[0-9]")) {
+                match('.'); // Consume the decimal point
+                if (!match(DIGIT)) {
                     // If there are no digits following the decimal point, it's an integer
                     return chars.emit(Token.Type.INTEGER);
                 }
-                while (match("[0-9]")); // Consume remaining digits
+                chars.advanceWhile(DIGIT); // Consume remaining digits
             }
         } else {
             // No valid number pattern matched, return an OPERATOR token
@@ -153,12 +462,76 @@ public final class Lexer {
             // If it's a negative sign without any digits or decimal point, it's an operator
             return chars.emit(Token.Type.OPERATOR);
         } else if (hasDecimal) {
-            return chars.emit(Token.Type.DECIMAL); // Decimal token
+            return chars.emit(Token.Type.DECIMAL, numberValue(true)); // Decimal token
         } else if (isNegative) {
             // If it's a negative sign followed by digits, it's a negative integer
-            return chars.emit(Token.Type.INTEGER);
+            return chars.emit(Token.Type.INTEGER, numberValue(false));
         } else {
-            return chars.emit(Token.Type.INTEGER); // Integer token
+            return chars.emit(Token.Type.INTEGER, numberValue(false)); // Integer token
+        }
+    }
+
+    /**
+     * Returns the value of the number just lexed, a {@link Long} or a
+     * {@link BigDecimal} built from its unscaled digits, or {@code null} if
+     * the digits do not fit in a long.
+     */
+    private Object numberValue(boolean decimal) {
+        long unscaled = 0;
+        int scale = 0;
+        boolean negative = chars.get(-chars.length) == '-';
+        for (int i = negative ? 1 - chars.length : -chars.length; i < 0; i++) {
+            char c = chars.get(i);
+            if (c == '.') {
+                scale = -i - 1;
+            } else if (unscaled > (Long.MAX_VALUE - (c - '0')) / 10) {
+                return null;
+            } else {
+                unscaled = unscaled * 10 + (c - '0');
+            }
+        }
+        if (negative) {
+            unscaled = -unscaled;
+        }
+        return decimal ? BigDecimal.valueOf(unscaled, scale) : (Object) unscaled;
+    }
+
+    /**
+     * Returns the char denoted by the escape sequence {@code \\c}.
+     */
+    static char unescape(char c) {
+        switch (c) {
+            case 'b': return '\b';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            default: return c;
+        }
+    }
+
+    /**
+     * Decodes the value of a literal token from its literal, as described by
+     * {@link Token#getValue()}, for tokens whose value was not decoded while
+     * lexing. Other tokens have no value.
+     */
+    static Object value(Token.Type type, String literal) {
+        switch (type) {
+            case INTEGER:
+                BigInteger integer = new BigInteger(literal);
+                return integer.bitLength() < 64 ? (Object) integer.longValue() : integer;
+            case DECIMAL:
+                return new BigDecimal(literal);
+            case CHARACTER:
+                return literal.charAt(1) == '\\' ? unescape(literal.charAt(2)) : literal.charAt(1);
+            case STRING:
+                StringBuilder builder = new StringBuilder();
+                for (int i = 1; i < literal.length() - 1; i++) {
+                    char c = literal.charAt(i);
+                    builder.append(c == '\\' ? unescape(literal.charAt(++i)) : c);
+                }
+                return builder.toString();
+            default:
+                return null;
         }
     }
 
@@ -176,12 +549,19 @@ public final class Lexer {
         }
 
         char currentChar = chars.get(0);
+        Character value = null; // Non-ASCII UTF-8 bytes are decoded on request
 
         if (currentChar == '\\') {
             chars.advance(); // Move past the backslash
+            if (chars.has(0)) {
+                value = unescape(chars.get(0));
+            }
             lexEscape(); // Handle escape sequence
         } else {
-            chars.advance(); // Move past the character
+            if (chars.bytes == null || currentChar < 0x80) {
+                value = currentChar;
+            }
+            chars.advanceChar(); // Move past the character
         }
 
         if (!chars.has(0) || chars.get(0) != '\'') {
@@ -190,7 +570,7 @@ public final class Lexer {
 
         chars.advance(); // Move past the closing apostrophe
 
-        return chars.emit(Token.Type.CHARACTER);
+        return chars.emit(Token.Type.CHARACTER, value);
     }
 
 
@@ -204,82 +584,65 @@ public final class Lexer {
 
     public Token lexString() throws ParseException {
         chars.advance(); // Move passed the opening double quote
-        StringBuilder stringBuilder = new StringBuilder();
-
-        while (chars.has(0)) {
-            char currentChar = chars.get(0);
+        StringBuilder stringBuilder = null; // Only needed once there is an escape
+        int run = chars.index; // Start of the characters not yet in the value
+
+        while (true) {
+            chars.advanceStringBody();
+            if (!chars.has(0)) {
+                // If we reached this point, it means the string is unterminated
+                throw new ParseException("Unterminated string literal", chars.index);
+            }
 
-            if (currentChar == '\\') {
-                chars.advance(); // Move passed the backslash
-                if (!chars.has(0)) {
-                    throw new ParseException("Unterminated escape sequence", chars.index - 1);
-                }
-                char escapedChar = chars.get(0);
-                if (escapedChar == '"' || escapedChar == '\\' || escapedChar == 'b' || escapedChar == 'n'
-                        || escapedChar == 'r' || escapedChar == 't') {
-                    stringBuilder.append(escapedChar);
-                    chars.advance(); // Move passed the escaped character
-                } else {
-                    throw new ParseException("Invalid escape sequence", chars.index - 1);
-                }
-            } else if (currentChar == '"') {
+            if (chars.get(0) == '"') {
+                String value = stringBuilder == null ? chars.text(run, chars.index)
+                        : stringBuilder.append(chars.text(run, chars.index)).toString();
                 chars.advance(); // Move passed the closing double quote
-                return chars.emit(Token.Type.STRING);
+                return chars.emit(Token.Type.STRING, value);
+            }
+
+            if (stringBuilder == null) {
+                stringBuilder = new StringBuilder();
+            }
+            stringBuilder.append(chars.text(run, chars.index));
+            chars.advance(); // Move passed the backslash
+            if (!chars.has(0)) {
+                throw new ParseException("Unterminated escape sequence", chars.index - 1);
+            }
+            char escapedChar = chars.get(0);
+            if (escapedChar == '"' || escapedChar == '\\' || escapedChar == 'b' || escapedChar == 'n'
+                    || escapedChar == 'r' || escapedChar == 't') {
+                stringBuilder.append(unescape(escapedChar));
+                chars.advance(); // Move passed the escaped character
+                run = chars.index;
             } else {
-                stringBuilder.append(currentChar);
-                chars.advance(); // Move to the next character
+                throw new ParseException("Invalid escape sequence", chars.index - 1);
             }
         }
-
-        // If we reached this point, it means the string is unterminated
-        throw new ParseException("Unterminated string literal", chars.index);
     }
 
 
 
     public void lexEscape() throws ParseException {
-        char escapeChar = chars.get(0);
-        switch (escapeChar) {
-            case 'b':
-            case 'n':
-            case 'r':
-            case 't':
-            case '\'':
-            case '\"':
-            case '\\':
-                chars.advance(); // Advance passed the escape character
-                break;
-            default:
-                throw new ParseException("Invalid escape sequence", chars.index);
+        if (!match(ESCAPE)) { // Advance passed the escape character
+            throw new ParseException("Invalid escape sequence", chars.index);
         }
     }
 
 
+    /**
+     * Lexes the longest operator in {@link #setOperators(Operators) the
+     * operator set} starting at the next character, falling back to a single
+     * character since any character is an operator.
+     */
     public Token lexOperator() {
-        Map<String, Runnable> operatorActions = new HashMap<>();
-        operatorActions.put("!=", () -> {});
-        operatorActions.put("==", () -> {});
-        operatorActions.put("&&", () -> {});
-        operatorActions.put("||", () -> {});
-
-        String[] singleOperators = new String[]{"!", "=", "&", "|"};
-
-        for (String op : singleOperators) {
-            if (match(op)) {
-                if ("!".equals(op)) {
-                    match("=");
-                } else if ("=".equals(op)) {
-                    match("=");
-                } else if ("&".equals(op)) {
-                    match("&");
-                } else if ("|".equals(op)) {
-                    match("|");
-                }
-                return chars.emit(Token.Type.OPERATOR);
-            }
+        int length = operators.longestMatch(chars);
+        if (length == 0) {
+            chars.advanceChar();
+        }
+        for (int i = 0; i < length; i++) {
+            chars.advance();
         }
-
-        chars.advance();
         return chars.emit(Token.Type.OPERATOR);
     }
 
@@ -295,13 +658,39 @@ public final class Lexer {
                 return false;
             }
             // Check if the character at index i matches the pattern
-            if (!String.valueOf(chars.get(i)).matches(patterns[i])) {
+            String pattern = patterns[i];
+            if (pattern.length() == 1 && !isRegexMeta(pattern.charAt(0))) {
+                if (chars.get(i) != pattern.charAt(0)) {
+                    return false;
+                }
+            } else if (!PATTERNS.computeIfAbsent(pattern, Pattern::compile)
+                    .matcher(String.valueOf(chars.get(i))).matches()) {
                 return false;
             }
         }
         return true;
     }
 
+    private static boolean isRegexMeta(char c) {
+        return "\\^$.|?*+()[]{}".indexOf(c) != -1;
+    }
+
+    /**
+     * Returns true if the next character is in the given class. This is the
+     * allocation-free counterpart of {@link #peek(String...)} used on the hot
+     * lexing paths.
+     */
+    public boolean peek(CharClass characters) {
+        return chars.has(0) && characters.matches(chars.get(0));
+    }
+
+    /**
+     * Returns true if the next character is exactly {@code c}.
+     */
+    public boolean peek(char c) {
+        return chars.has(0) && chars.get(0) == c;
+    }
+
     /**
      * Returns true in the same way as {@link #peek(String...)}, but also
      * advances the character stream past all matched characters if peek returns
@@ -318,6 +707,154 @@ public final class Lexer {
         //throw new UnsupportedOperationException();
     }
 
+    /**
+     * Returns true in the same way as {@link #peek(CharClass)}, advancing past
+     * the character if it matches.
+     */
+    public boolean match(CharClass characters) {
+        boolean peek = peek(characters);
+        if (peek) {
+            chars.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * Returns true in the same way as {@link #peek(char)}, advancing past the
+     * character if it matches.
+     */
+    public boolean match(char c) {
+        boolean peek = peek(c);
+        if (peek) {
+            chars.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * A set of ASCII characters backed by a lookup table. Classes are built once
+     * and shared, replacing the single-character regex patterns previously
+     * compiled on every {@link #peek(String...)} call.
+     */
+    public static final class CharClass {
+
+        private final boolean[] table;
+
+        private CharClass(boolean[] table) {
+            this.table = table;
+        }
+
+        /**
+         * Returns a class containing each character of the given string.
+         */
+        public static CharClass of(String characters) {
+            boolean[] table = new boolean[128];
+            for (int i = 0; i < characters.length(); i++) {
+                table[characters.charAt(i)] = true;
+            }
+            return new CharClass(table);
+        }
+
+        /**
+         * Returns a class containing the characters {@code from} through
+         * {@code to}, inclusive.
+         */
+        public static CharClass range(char from, char to) {
+            boolean[] table = new boolean[128];
+            for (char c = from; c <= to; c++) {
+                table[c] = true;
+            }
+            return new CharClass(table);
+        }
+
+        /**
+         * Returns the union of this class and {@code other}.
+         */
+        public CharClass or(CharClass other) {
+            boolean[] union = new boolean[128];
+            for (int i = 0; i < union.length; i++) {
+                union[i] = table[i] || other.table[i];
+            }
+            return new CharClass(union);
+        }
+
+        public boolean matches(char c) {
+            return c < 128 && table[c];
+        }
+
+    }
+
+    /**
+     * A set of multi-character operators stored as a trie in a dense
+     * transition table over ASCII, for longest-match lexing without allocation.
+     */
+    public static final class Operators {
+
+        public static final Operators DEFAULT = of("!=", "==", "&&", "||");
+
+        private final int[] transitions; // transitions[state * 128 + c], 0 if none
+        private final boolean[] accepting;
+        private final int maxLength;
+
+        private Operators(int[] transitions, boolean[] accepting, int maxLength) {
+            this.transitions = transitions;
+            this.accepting = accepting;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * Returns the set of the given ASCII operators. Single characters need
+         * not be listed, as every character lexes as an operator on its own.
+         */
+        public static Operators of(String... operators) {
+            int states = 1;
+            int maxLength = 0;
+            for (String operator : operators) {
+                states += operator.length();
+                maxLength = Math.max(maxLength, operator.length());
+            }
+            int[] transitions = new int[states * 128];
+            boolean[] accepting = new boolean[states];
+            int used = 1;
+            for (String operator : operators) {
+                int state = 0;
+                for (int i = 0; i < operator.length(); i++) {
+                    char c = operator.charAt(i);
+                    if (c >= 128) {
+                        throw new IllegalArgumentException("Operator " + operator + " is not ASCII.");
+                    }
+                    if (transitions[state * 128 + c] == 0) {
+                        transitions[state * 128 + c] = used++;
+                    }
+                    state = transitions[state * 128 + c];
+                }
+                accepting[state] = true;
+            }
+            return new Operators(transitions, accepting, maxLength);
+        }
+
+        /**
+         * Returns the length of the longest operator at the start of the
+         * stream, or 0 if none is longer than a single character.
+         */
+        int longestMatch(CharStream chars) {
+            int state = 0;
+            int longest = 0;
+            for (int i = 0; chars.has(i); i++) {
+                char c = chars.get(i);
+                if (c >= 128 || transitions[state * 128 + c] == 0) {
+                    break;
+                }
+                state = transitions[state * 128 + c];
+                if (accepting[state]) {
+                    longest = i + 1;
+                }
+            }
+            return longest;
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
@@ -325,23 +862,76 @@ public final class Lexer {
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
      * ParseException} which is thrown.
+     *
+     * When created from a {@link Reader} the stream holds only a bounded
+     * window of the input, starting at the token currently being matched, and
+     * refills it on demand. Indices are always absolute positions in the input.
+     *
+     * When created from a {@link ByteBuffer} of UTF-8 the stream works on byte
+     * offsets directly and never decodes the input; each byte is presented as
+     * a char, which is exact for the ASCII characters the lexer branches on.
+     * Multi-byte sequences only need care where a single character is
+     * consumed, see {@link #advanceChar()}.
      */
     public static final class CharStream {
 
-        private final String input;
+        private static final int BUFFER_SIZE = 8192;
+        private static final long SPACES = 0x2020202020202020L;
+        private static final long QUOTES = 0x2222222222222222L;
+        private static final long BACKSLASHES = 0x5C5C5C5C5C5C5C5CL;
+
+        private final Reader reader;
+        private final ByteBuffer bytes;
+        private char[] buffer;
+        private int offset = 0; // absolute index of buffer[0]
+        private int end; // absolute index one past the last buffered char
         private int index = 0;
         private int length = 0;
+        private TokenBuffer sink;
+        private final SymbolTable symbols = new SymbolTable();
 
         public CharStream(String input) {
-            this.input = input;
+            this.reader = null;
+            this.bytes = null;
+            this.buffer = input.toCharArray();
+            this.end = buffer.length;
+        }
+
+        public CharStream(Reader reader) {
+            this.reader = reader;
+            this.bytes = null;
+            this.buffer = new char[BUFFER_SIZE];
+            this.end = 0;
+        }
+
+        public CharStream(ByteBuffer bytes) {
+            this.reader = null;
+            this.bytes = bytes.slice();
+            this.end = this.bytes.limit();
+        }
+
+        /**
+         * Creates a stream over {@code [start, end)} of the input shared with
+         * another in-memory stream, keeping indices absolute.
+         */
+        private CharStream(CharStream input, int start, int end) {
+            this.reader = null;
+            this.bytes = input.bytes;
+            this.buffer = input.buffer;
+            this.offset = input.offset;
+            this.index = start;
+            this.end = end;
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            return index + offset < end || fill(index + offset);
         }
 
         public char get(int offset) {
-            return input.charAt(index + offset);
+            if (bytes != null) {
+                return (char) (bytes.get(index + offset) & 0xFF);
+            }
+            return buffer[index + offset - this.offset];
         }
 
         public void advance() {
@@ -349,17 +939,214 @@ public final class Lexer {
             length++;
         }
 
+        /**
+         * Advances past one full character. This is {@link #advance()} except
+         * for UTF-8 input, where the continuation bytes of a multi-byte
+         * sequence are consumed as well.
+         */
+        public void advanceChar() {
+            advance();
+            if (bytes != null) {
+                while (index < end && (bytes.get(index) & 0xC0) == 0x80) {
+                    advance();
+                }
+            }
+        }
+
         public void skip() {
             length = 0;
         }
 
+        /**
+         * Skips a run of whitespace and starts a new token after it. Over
+         * UTF-8 input, runs of spaces are skipped a word of eight at a time.
+         */
+        void skipWhitespace() {
+            do {
+                if (bytes != null) {
+                    while (index < end) {
+                        if (index + 8 <= end && bytes.getLong(index) == SPACES) {
+                            index += 8;
+                        } else if (Character.isWhitespace(bytes.get(index) & 0xFF)) {
+                            index++;
+                        } else {
+                            break;
+                        }
+                    }
+                } else {
+                    int i = index - offset;
+                    int stop = end - offset;
+                    while (i < stop && Character.isWhitespace(buffer[i])) {
+                        i++;
+                    }
+                    index = i + offset;
+                }
+                length = 0;
+            } while (index == end && fill(index));
+        }
+
+        /**
+         * Advances past a run of characters in {@code characters}, scanning
+         * the buffer directly rather than a character at a time.
+         */
+        void advanceWhile(CharClass characters) {
+            do {
+                int start = index;
+                if (bytes != null) {
+                    while (index < end && characters.matches((char) (bytes.get(index) & 0xFF))) {
+                        index++;
+                    }
+                } else {
+                    int i = index - offset;
+                    int stop = end - offset;
+                    while (i < stop && characters.matches(buffer[i])) {
+                        i++;
+                    }
+                    index = i + offset;
+                }
+                length += index - start;
+            } while (index == end && fill(index));
+        }
+
+        /**
+         * Advances to the next {@code '"'} or {@code '\\'}, or the end of the
+         * input. Over UTF-8 input, eight bytes are tested at a time for either
+         * byte, which cannot occur within a multi-byte character.
+         */
+        void advanceStringBody() {
+            do {
+                int start = index;
+                if (bytes != null) {
+                    while (index + 8 <= end) {
+                        long word = bytes.getLong(index);
+                        if (hasByte(word, QUOTES) || hasByte(word, BACKSLASHES)) {
+                            break;
+                        }
+                        index += 8;
+                    }
+                    while (index < end && bytes.get(index) != '"' && bytes.get(index) != '\\') {
+                        index++;
+                    }
+                } else {
+                    int i = index - offset;
+                    int stop = end - offset;
+                    while (i < stop && buffer[i] != '"' && buffer[i] != '\\') {
+                        i++;
+                    }
+                    index = i + offset;
+                }
+                length += index - start;
+            } while (index == end && fill(index));
+        }
+
+        /**
+         * Returns true if any byte of {@code word} equals the byte repeated in
+         * {@code pattern}.
+         */
+        private static boolean hasByte(long word, long pattern) {
+            long x = word ^ pattern;
+            return ((x - 0x0101010101010101L) & ~x & 0x8080808080808080L) != 0;
+        }
+
+        /**
+         * Returns the input from {@code from} to {@code to}, which must be
+         * within the current token.
+         */
+        String text(int from, int to) {
+            if (bytes != null) {
+                byte[] utf8 = new byte[to - from];
+                bytes.get(from, utf8);
+                return new String(utf8, StandardCharsets.UTF_8);
+            }
+            return new String(buffer, from - offset, to - from);
+        }
+
+        /**
+         * Emits the token being matched. While a {@link TokenBuffer} is being
+         * filled, tokens over in-memory input are only recorded there and
+         * {@code null} is returned instead of allocating a {@link Token}.
+         */
         public Token emit(Token.Type type) {
+            return emit(type, null);
+        }
+
+        /**
+         * Emits a token as {@link #emit(Token.Type)}, along with the value of
+         * a literal token if it was decoded while lexing.
+         */
+        private Token emit(Token.Type type, Object value) {
             int start = index - length;
             skip();
-            return new Token(type, input.substring(start, index), start);
+            String symbol = null;
+            if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+                symbol = bytes != null
+                        ? symbols.intern(bytes, start, index - start)
+                        : symbols.intern(buffer, start - offset, index - start);
+            }
+            if (sink != null && reader == null) {
+                sink.add(type, start, index - start, symbol, value);
+                return null;
+            }
+            Token token;
+            if (symbol != null) {
+                token = new Token(type, symbol, start);
+            } else if (bytes != null) {
+                token = new Token(type, bytes, start, index - start, value);
+            } else {
+                token = new Token(type, new String(buffer, start - offset, index - start), start, value);
+            }
+            if (sink != null) {
+                sink.add(token);
+            }
+            return token;
         }
 
+        /**
+         * Starts recording emitted tokens into a new buffer over this input.
+         */
+        private TokenBuffer startBuffer() {
+            if (bytes != null) {
+                sink = new TokenBuffer(bytes);
+            } else if (reader == null) {
+                sink = new TokenBuffer(buffer, offset);
+            } else {
+                sink = new TokenBuffer(null, 0);
+            }
+            return sink;
+        }
+
+        /**
+         * Reads from the reader until the char at absolute index {@code target}
+         * is buffered, returning false if the input ends first. Chars before the
+         * start of the current token are discarded to make room; the buffer only
+         * grows when a single token (plus lookahead) outgrows it.
+         */
+        private boolean fill(int target) {
+            if (reader == null) {
+                return false;
+            }
+            try {
+                while (end <= target) {
+                    int start = index - length;
+                    if (start > offset) {
+                        System.arraycopy(buffer, start - offset, buffer, 0, end - start);
+                        offset = start;
+                    }
+                    if (end - offset == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    int read = reader.read(buffer, end - offset, buffer.length - (end - offset));
+                    if (read == -1) {
+                        return false;
+                    }
+                    end += read;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
     }
 
-}
\ No newline at end of file
+}
@@ -1,9 +1,13 @@
 package plc.project;
-import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 /**
@@ -12,8 +16,8 @@ import java.util.Optional;
  * Tree (AST).
  * <p>
  * The parser has a similar architecture to the lexer, just with {@link Token}s
- * instead of characters. As before, {@link #peek(Object...)} and {@link
- * #match(Object...)} are helpers to make the implementation easier.
+ * instead of characters. As before, {@link #peek(int)} and {@link
+ * #match(int)} are helpers to make the implementation easier.
  * <p>
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
@@ -71,64 +75,415 @@ whitespace ::= [ \b\n\r\t]
 
 public final class Parser {
 
-    private static final String NIL = "NIL";
-    private static final String FALSE = "FALSE";
-    private static final String TRUE = "TRUE";
-    private static final String LEFT_PAREN = "(";
-    private static final String RIGHT_PAREN = ")";
-    private static final String LEFT_BRACKET = "[";
-    private static final String RIGHT_BRACKET = "]";
-    private static final String SLASH = "/";
-    private static final String STAR = "*";
-    private static final String MINUS = "-";
-    private static final String PLUS = "+";
-    private static final Object GREATER = ">";
-    private static final Object EQUALS = "==";
-    private static final Object LESS = "<";
-    private static final Object NOT_EQUAL = "!=";
-    private static final Object AND = "&&";
-    private static final Object OR = "||";
     public static final String SEMICOLON = ";";
     public static final String ASSIGNMENT = "=";
     public static final String COLON = ":";
     public static final String COMMA = ",";
 
+    private static final int LOGICAL = 1;
+    private static final int COMPARISON = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    /**
+     * The precedence of each binary operator by {@link TokenKind}, higher
+     * binding tighter, or 0 for other tokens. All are left associative.
+     */
+    private static final int[] PRECEDENCE = new int[TokenKind.OR + 1];
+
+    static {
+        PRECEDENCE[TokenKind.AND] = LOGICAL;
+        PRECEDENCE[TokenKind.OR] = LOGICAL;
+        PRECEDENCE[TokenKind.GREATER] = COMPARISON;
+        PRECEDENCE[TokenKind.EQUALS] = COMPARISON;
+        PRECEDENCE[TokenKind.LESS] = COMPARISON;
+        PRECEDENCE[TokenKind.NOT_EQUAL] = COMPARISON;
+        PRECEDENCE[TokenKind.MINUS] = ADDITIVE;
+        PRECEDENCE[TokenKind.PLUS] = ADDITIVE;
+        PRECEDENCE[TokenKind.SLASH] = MULTIPLICATIVE;
+        PRECEDENCE[TokenKind.STAR] = MULTIPLICATIVE;
+    }
+
 
     private final TokenStream tokens;
+    private boolean skimBodies = false;
+    private boolean recoverErrors = false;
+    private AstInterner interner = null;
+    private final List<ParseException> errors = new ArrayList<>();
 
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this(TokenBuffer.of(tokens));
+    }
+
+    /**
+     * Creates a parser reading tokens in place from {@code tokens}, such as
+     * the result of {@link Lexer#lexBuffer()}.
+     */
+    public Parser(TokenBuffer tokens) {
+        this.tokens = new BufferTokenStream(tokens, 0, tokens.size());
+    }
+
+    /**
+     * Creates a parser pulling tokens lazily from {@code tokens}, such as
+     * {@link Lexer#tokens()}, so lexing and parsing proceed together.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this.tokens = new IteratorTokenStream(tokens);
+    }
+
+    private Parser(TokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Sets whether function bodies are skimmed rather than parsed. A skimmed
+     * body is found by balancing {@code DO} and {@code SWITCH} against
+     * {@code END}, and its statements are parsed the first time the list
+     * returned by {@link Ast.Function#getStatements()} is accessed, which is
+     * also when any {@link ParseException} in the body is thrown. Skimming
+     * only applies to parsers over a {@link TokenBuffer}, and if the input
+     * ends before the body does, the body is parsed as usual instead.
+     */
+    public void setSkimBodies(boolean skimBodies) {
+        this.skimBodies = skimBodies;
+    }
+
+    /**
+     * Sets whether {@link #parseSource()} recovers from syntax errors. When
+     * enabled, each error is recorded in {@link #getErrors()} instead of
+     * being thrown, and parsing resumes after the next {@code ;} or
+     * {@code END}, or at the next {@code FUN}, {@code VAR}, {@code VAL} or
+     * {@code LIST}. A statement with an error is left out of its block and a
+     * global or function with an error outside its body is left out of the
+     * source, so the result is the part of the input that did parse. Bodies
+     * are never skimmed while recovering.
+     */
+    public void setRecoverErrors(boolean recoverErrors) {
+        this.recoverErrors = recoverErrors;
+    }
+
+    /**
+     * Sets the interner used to share constant expressions while parsing, or
+     * {@code null} for none, the default. Bodies parsed later by
+     * {@link #setSkimBodies(boolean)} are not interned, and parsing with an
+     * interner is always sequential.
+     */
+    public void setInterner(AstInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Returns the errors recovered from so far, in input order.
+     */
+    public List<ParseException> getErrors() {
+        return errors;
     }
 
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
+        if (recoverErrors) {
+            return parseSourceRecovering();
+        }
         List<Ast.Global> globals = new ArrayList<>();
-        while (peek("LIST", "VAR", "VAL")) {
+        while (peek(TokenKind.LIST) || peek(TokenKind.VAR) || peek(TokenKind.VAL)) {
             globals.add(parseGlobal());
         }
         List<Ast.Function> functions = new ArrayList<>();
-        while (peek("FUN")) {
+        while (peek(TokenKind.FUN)) {
             functions.add(parseFunction());
         }
         if (tokens.has(0))
-            throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+            throw new ParseException("Parse exception ", tokens.index(0)); //TODO
         return new Ast.Source(globals, functions);
     }
 
+    /**
+     * Parses the {@code source} rule as {@link #parseSource()} does, but
+     * parses functions concurrently on the common {@link ForkJoinPool}.
+     * <p>
+     * After the globals, a scan over the tokens splits the functions at the
+     * {@code END} balancing each body's {@code DO}, and batches of functions
+     * are parsed by parsers over their own ranges of tokens. The functions
+     * are assembled in source order, so the result equals the sequential
+     * parse. If the scan or any batch finds something unexpected, including
+     * a syntax error, the functions are parsed sequentially instead, so that
+     * errors are reported exactly as by {@link #parseSource()}. Parsers over
+     * an iterator, recovering from errors or interning always parse
+     * sequentially.
+     */
+    public Ast.Source parseSourceParallel() throws ParseException {
+        if (!(tokens instanceof BufferTokenStream) || recoverErrors || interner != null) {
+            return parseSource();
+        }
+        BufferTokenStream stream = (BufferTokenStream) tokens;
+        List<Ast.Global> globals = new ArrayList<>();
+        while (peek(TokenKind.LIST) || peek(TokenKind.VAR) || peek(TokenKind.VAL)) {
+            globals.add(parseGlobal());
+        }
+        int start = stream.index;
+        List<Integer> ends = new ArrayList<>(); // end of each function
+        for (int i = start; i < stream.end; ) {
+            int body = i + 1;
+            while (body < stream.end && stream.buffer.getKind(body) != TokenKind.DO
+                    && stream.buffer.getKind(body) != TokenKind.END && stream.buffer.getKind(body) != TokenKind.FUN) {
+                body++;
+            }
+            int end = stream.buffer.getKind(i) == TokenKind.FUN && body < stream.end
+                    && stream.buffer.getKind(body) == TokenKind.DO ? findEnd(stream.buffer, body + 1, stream.end) : -1;
+            if (end == -1) {
+                return finishSource(globals);
+            }
+            ends.add(end + 1);
+            i = end + 1;
+        }
+
+        int batches = Math.min(ends.size(), ForkJoinPool.commonPool().getParallelism() * 4);
+        List<ForkJoinTask<List<Ast.Function>>> tasks = new ArrayList<>();
+        for (int batch = 0; batch < batches; batch++) {
+            int first = ends.size() * batch / batches;
+            int last = ends.size() * (batch + 1) / batches;
+            int from = first == 0 ? start : ends.get(first - 1);
+            int to = ends.get(last - 1);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> parseFunctions(stream.buffer, from, to)));
+        }
+        List<Ast.Function> functions = new ArrayList<>(ends.size());
+        for (ForkJoinTask<List<Ast.Function>> task : tasks) {
+            List<Ast.Function> batch = task.join();
+            if (batch == null) {
+                return finishSource(globals);
+            }
+            functions.addAll(batch);
+        }
+        stream.index = stream.end;
+        return new Ast.Source(globals, functions);
+    }
+
+    /**
+     * Parses the functions in the given range of tokens, or returns
+     * {@code null} if they do not parse exactly up to its end.
+     */
+    private List<Ast.Function> parseFunctions(TokenBuffer buffer, int start, int end) {
+        Parser parser = new Parser(new BufferTokenStream(buffer, start, end));
+        parser.skimBodies = skimBodies;
+        List<Ast.Function> functions = new ArrayList<>();
+        try {
+            while (parser.tokens.has(0)) {
+                functions.add(parser.parseFunction());
+            }
+        } catch (RuntimeException e) {
+            return null; // Reported by the sequential parse instead
+        }
+        return functions;
+    }
+
+    /**
+     * Sequentially parses the functions after the given globals to the end
+     * of the input, as in {@link #parseSource()}.
+     */
+    private Ast.Source finishSource(List<Ast.Global> globals) throws ParseException {
+        List<Ast.Function> functions = new ArrayList<>();
+        while (peek(TokenKind.FUN)) {
+            functions.add(parseFunction());
+        }
+        if (tokens.has(0))
+            throw new ParseException("Unexpected tokens after the last declaration.", tokens.index(0));
+        return new Ast.Source(globals, functions);
+    }
+
+    /**
+     * Parses the {@code source} rule for {@link #setRecoverErrors(boolean)},
+     * recording each error and resynchronizing at the next declaration.
+     */
+    private Ast.Source parseSourceRecovering() {
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Ast.Function> functions = new ArrayList<>();
+        while (tokens.has(0)) {
+            int start = tokens.index;
+            try {
+                if (peek(TokenKind.LIST) || peek(TokenKind.VAR) || peek(TokenKind.VAL)) {
+                    if (functions.isEmpty()) {
+                        globals.add(parseGlobal());
+                    } else {
+                        errors.add(new ParseException("Globals must be declared before functions.", tokens.index(0)));
+                        parseGlobal(); // Parsed to resynchronize after it, then dropped
+                    }
+                } else if (peek(TokenKind.FUN)) {
+                    functions.add(parseFunction());
+                } else {
+                    throw new ParseException("Expected a global or function declaration.", tokens.index(0));
+                }
+            } catch (ParseException e) {
+                recordError(e);
+                if (tokens.index == start) {
+                    tokens.advance();
+                }
+                synchronize(false);
+            }
+        }
+        return new Ast.Source(globals, functions);
+    }
+
+    /**
+     * Records an error while recovering, unless one was already recorded at
+     * the same index.
+     */
+    private void recordError(ParseException error) {
+        if (errors.isEmpty() || errors.get(errors.size() - 1).getIndex() != error.getIndex()) {
+            errors.add(error);
+        }
+    }
+
+    /**
+     * Skips tokens after an error, up to and including the next {@code ;} or
+     * {@code END}, or up to the next {@code FUN}, {@code VAR}, {@code VAL}
+     * or {@code LIST}. Blocks opened by skipped tokens are skipped whole, up
+     * to their {@code END}, and within a block skipping stops before an
+     * {@code END}, {@code ELSE}, {@code CASE} or {@code DEFAULT} closing it.
+     */
+    private void synchronize(boolean inBlock) {
+        int depth = 0;
+        while (tokens.has(0)) {
+            int kind = tokens.kind(0);
+            if (kind == TokenKind.FUN || kind == TokenKind.VAR || kind == TokenKind.VAL || kind == TokenKind.LIST
+                    || inBlock && depth == 0 && (kind == TokenKind.END || kind == TokenKind.ELSE
+                    || kind == TokenKind.CASE || kind == TokenKind.DEFAULT)) {
+                return;
+            }
+            tokens.advance();
+            if (kind == TokenKind.DO || kind == TokenKind.SWITCH) {
+                depth++;
+            } else if (kind == TokenKind.END ? --depth <= 0 : kind == TokenKind.SEMICOLON && depth == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule from {@code tokens}, recording the token
+     * range of each declaration for {@link #reparse}.
+     */
+    public static Snapshot parseSnapshot(List<Token> tokens) throws ParseException {
+        Parser parser = new Parser(tokens);
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Ast.Function> functions = new ArrayList<>();
+        List<Integer> bounds = new ArrayList<>(); // start and end of each declaration
+        parser.parseDeclarations(globals, functions, bounds, 0);
+        if (parser.tokens.has(0))
+            throw new ParseException("Unexpected tokens after the last declaration.", parser.tokens.index(0));
+        return new Snapshot(new Ast.Source(globals, functions), tokens, bounds);
+    }
+
+    /**
+     * Reparses after an edit replacing {@code removed} chars at {@code offset}
+     * of the input of {@code previous} with {@code inserted}, given the
+     * {@code tokens} of the new input, such as from {@link Lexer#relex}.
+     * <p>
+     * Only the declarations whose text touches the edit are parsed again,
+     * along with any new ones in their place; every other {@link Ast.Global}
+     * and {@link Ast.Function} is reused as is, so the work depends on the
+     * size of the edited declarations and the number of declarations, not on
+     * the size of the input. If the tokens around the edit are not as
+     * expected, or the edited declarations do not parse, the whole input is
+     * parsed again so that errors match {@link #parseSource()}.
+     */
+    public static Snapshot reparse(Snapshot previous, List<Token> tokens, int offset, int removed, String inserted)
+            throws ParseException {
+        int declarations = previous.bounds.length / 2;
+        int low = 0, high = declarations;
+        while (low < high) { // First declaration ending at or after the edit
+            int mid = (low + high) >>> 1;
+            if (previous.end(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int first = low;
+        int last = first;
+        while (last < declarations && previous.start(last) <= offset + removed) {
+            last++;
+        }
+        int from = first < declarations ? previous.bounds[2 * first] : previous.tokens.size();
+        int to = last > first ? previous.bounds[2 * last - 1] : from;
+        int delta = tokens.size() - previous.tokens.size();
+        int shift = inserted.length() - removed;
+        if (to + delta < from
+                || from > 0 && !tokens.get(from - 1).equals(previous.tokens.get(from - 1))
+                || to < previous.tokens.size() && !shifted(previous.tokens.get(to), shift).equals(tokens.get(to + delta))) {
+            return parseSnapshot(tokens);
+        }
+
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Ast.Function> functions = new ArrayList<>();
+        List<Integer> bounds = new ArrayList<>();
+        try {
+            Parser parser = new Parser(TokenBuffer.of(tokens.subList(from, to + delta)));
+            parser.parseDeclarations(globals, functions, bounds, from);
+            if (parser.tokens.has(0)
+                    || !globals.isEmpty() && first > previous.source.getGlobals().size()
+                    || !functions.isEmpty() && last < previous.source.getGlobals().size()) {
+                return parseSnapshot(tokens); // Out of place, reported by the full parse
+            }
+        } catch (RuntimeException e) {
+            return parseSnapshot(tokens);
+        }
+
+        int kept = previous.source.getGlobals().size();
+        List<Ast.Global> newGlobals = new ArrayList<>(previous.source.getGlobals().subList(0, Math.min(first, kept)));
+        newGlobals.addAll(globals);
+        newGlobals.addAll(previous.source.getGlobals().subList(Math.min(Math.max(last, first), kept), kept));
+        List<Ast.Function> newFunctions = new ArrayList<>(
+                previous.source.getFunctions().subList(0, Math.max(first - kept, 0)));
+        newFunctions.addAll(functions);
+        newFunctions.addAll(previous.source.getFunctions().subList(Math.max(last - kept, 0), declarations - kept));
+
+        List<Integer> newBounds = new ArrayList<>(previous.bounds.length + bounds.size());
+        for (int i = 0; i < 2 * first; i++) {
+            newBounds.add(previous.bounds[i]);
+        }
+        newBounds.addAll(bounds);
+        for (int i = 2 * last; i < previous.bounds.length; i++) {
+            newBounds.add(previous.bounds[i] + delta);
+        }
+        return new Snapshot(new Ast.Source(newGlobals, newFunctions), tokens, newBounds);
+    }
+
+    private static Token shifted(Token token, int shift) {
+        return new Token(token.getType(), token.getLiteral(), token.getIndex() + shift);
+    }
+
+    /**
+     * Parses globals then functions as in {@link #parseSource()}, adding the
+     * token range of each, offset by {@code base}, to {@code bounds}.
+     */
+    private void parseDeclarations(List<Ast.Global> globals, List<Ast.Function> functions, List<Integer> bounds,
+                                   int base) throws ParseException {
+        while (peek(TokenKind.LIST) || peek(TokenKind.VAR) || peek(TokenKind.VAL)) {
+            bounds.add(base + tokens.index);
+            globals.add(parseGlobal());
+            bounds.add(base + tokens.index);
+        }
+        while (peek(TokenKind.FUN)) {
+            bounds.add(base + tokens.index);
+            functions.add(parseFunction());
+            bounds.add(base + tokens.index);
+        }
+    }
+
     /**
      * Parses the {@code global} rule. This method should only be called if the
      * next tokens start a global, aka {@code LIST|VAL|VAR}.
      */
     public Ast.Global parseGlobal() throws ParseException {
-        if (peek("LIST"))
+        if (peek(TokenKind.LIST))
             return parseList();
-        if (peek("VAR"))
+        if (peek(TokenKind.VAR))
             return parseMutable();
-        if (peek("VAL"))
+        if (peek(TokenKind.VAL))
             return parseImmutable();
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
 
     }
 
@@ -139,23 +494,23 @@ public final class Parser {
     public Ast.Global parseList() throws ParseException {
         List<Ast.Expression> listElements = new ArrayList<>();
         Ast.Expression.PlcList list = new Ast.Expression.PlcList(listElements);
-        if (match("LIST")) {
+        if (match(TokenKind.LIST)) {
             if (match(Token.Type.IDENTIFIER)) {
-                String identifier = previous().getLiteral();
-                if (match(COLON)) {
+                String identifier = tokens.literal(-1);
+                if (match(TokenKind.COLON)) {
                     if (match(Token.Type.IDENTIFIER)) {
-                        String typeName = previous().getLiteral();
+                        String typeName = tokens.literal(-1);
                         list.setType(Environment.getType(typeName));
-                        if (match(ASSIGNMENT)) {
-                            if (match(LEFT_BRACKET)) {
+                        if (match(TokenKind.ASSIGNMENT)) {
+                            if (match(TokenKind.LEFT_BRACKET)) {
                                 listElements.add(parseExpression());
-                                while (match(COMMA))
+                                while (match(TokenKind.COMMA))
                                     listElements.add(parseExpression());
                             }
-                            if (!match(RIGHT_BRACKET))
-                                throw new ParseException("Expect ']' after list listElements.", previous().getIndex());
+                            if (!match(TokenKind.RIGHT_BRACKET))
+                                throw new ParseException("Expect ']' after list listElements.", tokens.index(-1));
 
-                            if (match(SEMICOLON)) {
+                            if (match(TokenKind.SEMICOLON)) {
 
                                 return new Ast.Global(identifier, typeName, true, Optional.of(list));
                             }
@@ -164,7 +519,7 @@ public final class Parser {
                 }
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex());
+        throw new ParseException("Parse exception ", tokens.index(0));
 
 
     }
@@ -174,23 +529,23 @@ public final class Parser {
      * next token declares a mutable global variable, aka {@code VAR}.
      */
     public Ast.Global parseMutable() throws ParseException {
-        if (match("VAR")) {
+        if (match(TokenKind.VAR)) {
             if (match(Token.Type.IDENTIFIER)) {
-                String identifier = previous().getLiteral();
-                if (match(COLON)) {
+                String identifier = tokens.literal(-1);
+                if (match(TokenKind.COLON)) {
                     if (match(Token.Type.IDENTIFIER)) {
-                        String typeName = previous().getLiteral();
-                        if (match(ASSIGNMENT)) {
+                        String typeName = tokens.literal(-1);
+                        if (match(TokenKind.ASSIGNMENT)) {
                             Ast.Expression expression = parseExpression();
-                            if (match(SEMICOLON))
+                            if (match(TokenKind.SEMICOLON))
                                 return new Ast.Global(identifier, typeName, true, Optional.of(expression));
                         }
-                        if (match(SEMICOLON)) return new Ast.Global(identifier, typeName, true, Optional.empty());
+                        if (match(TokenKind.SEMICOLON)) return new Ast.Global(identifier, typeName, true, Optional.empty());
                     }
                 }
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -198,24 +553,24 @@ public final class Parser {
      * next token declares an immutable global variable, aka {@code VAL}.
      */
     public Ast.Global parseImmutable() throws ParseException {
-        if (match("VAL")) {
+        if (match(TokenKind.VAL)) {
             if (match(Token.Type.IDENTIFIER)) {
-                String identifier = previous().getLiteral();
+                String identifier = tokens.literal(-1);
                 // Parse type
-                if (match(COLON)) {
+                if (match(TokenKind.COLON)) {
                     if (match(Token.Type.IDENTIFIER)) {
-                        String typeName = previous().getLiteral();
+                        String typeName = tokens.literal(-1);
 
-                        if (match(ASSIGNMENT)) {
+                        if (match(TokenKind.ASSIGNMENT)) {
                             Ast.Expression expression = parseExpression();
-                            if (match(SEMICOLON))
+                            if (match(TokenKind.SEMICOLON))
                                 return new Ast.Global(identifier, typeName, false, Optional.of(expression));
                         }
                     }
                 }
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -223,23 +578,23 @@ public final class Parser {
      * next tokens start a method, aka {@code FUN}.
      */
     public Ast.Function parseFunction() throws ParseException {
-        if (match("FUN")) {
+        if (match(TokenKind.FUN)) {
             if (match(Token.Type.IDENTIFIER)) {
-                String identifier = previous().getLiteral();
-                if (match(LEFT_PAREN)) {
+                String identifier = tokens.literal(-1);
+                if (match(TokenKind.LEFT_PAREN)) {
                     List<String> parameters = new ArrayList<>();
                     List<String> parameterTypeNames = new ArrayList<>();
                     if (match(Token.Type.IDENTIFIER)) {
-                        parameters.add(previous().getLiteral());
-                        if (match(COLON)) {
+                        parameters.add(tokens.literal(-1));
+                        if (match(TokenKind.COLON)) {
                             if (match(Token.Type.IDENTIFIER)) {
-                                parameterTypeNames.add(previous().getLiteral());
-                                while (match(COMMA)) {
+                                parameterTypeNames.add(tokens.literal(-1));
+                                while (match(TokenKind.COMMA)) {
                                     if (match(Token.Type.IDENTIFIER)) {
-                                        parameters.add(previous().getLiteral());
-                                        if (match(COLON)) {
+                                        parameters.add(tokens.literal(-1));
+                                        if (match(TokenKind.COLON)) {
                                             if (match(Token.Type.IDENTIFIER)) {
-                                                parameterTypeNames.add(previous().getLiteral());
+                                                parameterTypeNames.add(tokens.literal(-1));
                                             }
                                         }
                                     }
@@ -247,28 +602,64 @@ public final class Parser {
                             }
                         }
                     }
-                    if (!match(RIGHT_PAREN))
-                        throw new ParseException("Expect ')' after parameters.", previous().getIndex());
-                    if (match(COLON)) {
+                    if (!match(TokenKind.RIGHT_PAREN))
+                        throw new ParseException("Expect ')' after parameters.", tokens.index(-1));
+                    if (match(TokenKind.COLON)) {
                         if (match(Token.Type.IDENTIFIER)) {
-                            String returnType = previous().getLiteral();
-                            if (match("DO")) {
-                                List<Ast.Statement> block = parseBlock();
-                                if (match("END"))
+                            String returnType = tokens.literal(-1);
+                            if (match(TokenKind.DO)) {
+                                List<Ast.Statement> block = parseBody();
+                                if (match(TokenKind.END))
                                     return new Ast.Function(identifier, parameters, parameterTypeNames, Optional.of(returnType), block);
                             }
                         }
                     }
                     //consume(RIGHT_PAREN, "Expect ')' after parameters.");
-                    if (match("DO")) {
-                        List<Ast.Statement> block = parseBlock();
-                        if (match("END"))
+                    if (match(TokenKind.DO)) {
+                        List<Ast.Statement> block = parseBody();
+                        if (match(TokenKind.END))
                             return new Ast.Function(identifier, parameters, parameterTypeNames, Optional.empty(), block);
                     }
                 }
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
+    }
+
+    /**
+     * Parses the block of a function body, or skims it if enabled by
+     * {@link #setSkimBodies(boolean)}, stopping at the closing {@code END}.
+     */
+    private List<Ast.Statement> parseBody() throws ParseException {
+        if (!skimBodies || recoverErrors || !(tokens instanceof BufferTokenStream)) {
+            return parseBlock();
+        }
+        BufferTokenStream stream = (BufferTokenStream) tokens;
+        int start = stream.index;
+        int end = findEnd(stream.buffer, start, stream.end);
+        if (end == -1) {
+            return parseBlock();
+        }
+        stream.index = end;
+        return new SkimmedBlock(stream.buffer, start, end);
+    }
+
+    /**
+     * Returns the index of the {@code END} closing a block starting at
+     * {@code start}, balancing {@code DO} and {@code SWITCH} against
+     * {@code END}, or -1 if there is none before {@code end}.
+     */
+    private static int findEnd(TokenBuffer buffer, int start, int end) {
+        int depth = 0;
+        for (int i = start; i < end; i++) {
+            int kind = buffer.getKind(i);
+            if (kind == TokenKind.DO || kind == TokenKind.SWITCH) {
+                depth++;
+            } else if (kind == TokenKind.END && depth-- == 0) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -277,7 +668,20 @@ public final class Parser {
      */
     public List<Ast.Statement> parseBlock() throws ParseException {
         List<Ast.Statement> statements = new ArrayList<>();
-        while (!peek("END", "ELSE", "CASE", "DEFAULT")) {
+        while (!(peek(TokenKind.END) || peek(TokenKind.ELSE) || peek(TokenKind.CASE) || peek(TokenKind.DEFAULT))) {
+            if (recoverErrors) {
+                if (!tokens.has(0) || peek(TokenKind.FUN) || peek(TokenKind.VAR) || peek(TokenKind.VAL)
+                        || peek(TokenKind.LIST)) {
+                    break; // Left for the enclosing declaration to report
+                }
+                try {
+                    statements.add(parseStatement());
+                } catch (ParseException e) {
+                    recordError(e);
+                    synchronize(true);
+                }
+                continue;
+            }
             statements.add(parseStatement());
         }
         return statements;
@@ -289,26 +693,26 @@ public final class Parser {
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Statement parseStatement() throws ParseException {
-        if (peek("LET"))
+        if (peek(TokenKind.LET))
             return parseDeclarationStatement();
-        if (peek("IF"))
+        if (peek(TokenKind.IF))
             return parseIfStatement();
-        if (peek("SWITCH"))
+        if (peek(TokenKind.SWITCH))
             return parseSwitchStatement();
-        if (peek("WHILE"))
+        if (peek(TokenKind.WHILE))
             return parseWhileStatement();
-        if (peek("RETURN"))
+        if (peek(TokenKind.RETURN))
             return parseReturnStatement();
 
         Ast.Expression expression = parseExpression();
 
-        if (match(SEMICOLON)) return new Ast.Statement.Expression(expression);
+        if (match(TokenKind.SEMICOLON)) return new Ast.Statement.Expression(expression);
 
-        if (match(ASSIGNMENT)) {
+        if (match(TokenKind.ASSIGNMENT)) {
             Ast.Expression right = parseExpression();
-            if (match(";")) return new Ast.Statement.Assignment(expression, right);
+            if (match(TokenKind.SEMICOLON)) return new Ast.Statement.Assignment(expression, right);
         }
-        throw new ParseException("Unable to parse statement @", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Unable to parse statement @", tokens.index(0)); //TODO
     }
 
     /**
@@ -317,31 +721,31 @@ public final class Parser {
      * statement, aka {@code LET}.
      */
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
-        if (match("LET")) {
+        if (match(TokenKind.LET)) {
             if (match(Token.Type.IDENTIFIER)) {
-                String identifier = previous().getLiteral();
-                if (match(COLON)) {
+                String identifier = tokens.literal(-1);
+                if (match(TokenKind.COLON)) {
                     if (match(Token.Type.IDENTIFIER)) {
-                        String typeName = previous().getLiteral();
-                        if (match(ASSIGNMENT)) {
+                        String typeName = tokens.literal(-1);
+                        if (match(TokenKind.ASSIGNMENT)) {
                             Ast.Expression expression = parseExpression();
-                            if (match(SEMICOLON))
+                            if (match(TokenKind.SEMICOLON))
                                 return new Ast.Statement.Declaration(identifier, Optional.of(typeName), Optional.of(expression));
                         }
-                        if (match(SEMICOLON))
+                        if (match(TokenKind.SEMICOLON))
                             return new Ast.Statement.Declaration(identifier, Optional.of(typeName), Optional.empty());
                     }
                 }
-                if (match(ASSIGNMENT)) {
+                if (match(TokenKind.ASSIGNMENT)) {
                     Ast.Expression expression = parseExpression();
-                    if (match(SEMICOLON))
+                    if (match(TokenKind.SEMICOLON))
                         return new Ast.Statement.Declaration(identifier, Optional.empty(), Optional.of(expression));
                 }
-                if (match(SEMICOLON))
+                if (match(TokenKind.SEMICOLON))
                     return new Ast.Statement.Declaration(identifier, Optional.empty(), Optional.empty());
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -350,19 +754,19 @@ public final class Parser {
      * {@code IF}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
-        if (match("IF")) {
+        if (match(TokenKind.IF)) {
             Ast.Expression condition = parseExpression();
-            if (match("DO")) {
+            if (match(TokenKind.DO)) {
                 List<Ast.Statement> block = parseBlock();
-                if (match("ELSE")) {
+                if (match(TokenKind.ELSE)) {
                     List<Ast.Statement> elseBlock = parseBlock();
-                    if (match("END")) return new Ast.Statement.If(condition, block, elseBlock);
+                    if (match(TokenKind.END)) return new Ast.Statement.If(condition, block, elseBlock);
                 } else {
-                    if (match("END")) return new Ast.Statement.If(condition, block, new ArrayList<>());
+                    if (match(TokenKind.END)) return new Ast.Statement.If(condition, block, new ArrayList<>());
                 }
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -371,15 +775,15 @@ public final class Parser {
      * {@code SWITCH}.
      */
     public Ast.Statement.Switch parseSwitchStatement() throws ParseException {
-        if (match("SWITCH")) {
+        if (match(TokenKind.SWITCH)) {
             Ast.Expression condition = parseExpression();
             List<Ast.Statement.Case> cases = new ArrayList<>();
-            while (peek("CASE", "DEFAULT")) {
+            while (peek(TokenKind.CASE) || peek(TokenKind.DEFAULT)) {
                 cases.add(parseCaseStatement());
             }
-            if (match("END")) return new Ast.Statement.Switch(condition, cases);
+            if (match(TokenKind.END)) return new Ast.Statement.Switch(condition, cases);
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -388,20 +792,20 @@ public final class Parser {
      * default block of a switch statement, aka {@code CASE} or {@code DEFAULT}.
      */
     public Ast.Statement.Case parseCaseStatement() throws ParseException {
-        if (match("CASE")) {
+        if (match(TokenKind.CASE)) {
             Ast.Expression condition = parseExpression();
-            if (match(COLON)) {
+            if (match(TokenKind.COLON)) {
                 List<Ast.Statement> block = parseBlock();
                 return new Ast.Statement.Case(Optional.of(condition), block);
             }
         }
-        if (match("DEFAULT")) {
+        if (match(TokenKind.DEFAULT)) {
 
             List<Ast.Statement> block = parseBlock();
             return new Ast.Statement.Case(Optional.empty(), block);
 
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -410,14 +814,14 @@ public final class Parser {
      * {@code WHILE}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
-        if (match("WHILE")) {
+        if (match(TokenKind.WHILE)) {
             Ast.Expression condition = parseExpression();
-            if (match("DO")) {
+            if (match(TokenKind.DO)) {
                 List<Ast.Statement> block = parseBlock();
-                if (match("END")) return new Ast.Statement.While(condition, block);
+                if (match(TokenKind.END)) return new Ast.Statement.While(condition, block);
             }
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
@@ -426,86 +830,204 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
-        if (match("RETURN")) {
+        if (match(TokenKind.RETURN)) {
             Ast.Expression expression = parseExpression();
-            if (match(SEMICOLON)) return new Ast.Statement.Return(expression);
+            if (match(TokenKind.SEMICOLON)) return new Ast.Statement.Return(expression);
         }
-        throw new ParseException("Parse exception ", tokens.get(0).getIndex()); //TODO
+        throw new ParseException("Parse exception ", tokens.index(0)); //TODO
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expression parseExpression() throws ParseException {
-
-        return parseLogicalExpression();
+        return parseExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expression parseLogicalExpression() throws ParseException {
-        Ast.Expression left = parseComparisonExpression();
-
-        //while it is a comparison operator GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, parse the right side of the expression and create a binary expression
-        while (match(AND, OR)) {
-            String operator = previous().getLiteral();
-            Ast.Expression right = parseComparisonExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code comparison-expression} rule.
      */
     public Ast.Expression parseComparisonExpression() throws ParseException {
-        Ast.Expression left = parseAdditiveExpression();
-
-        //while it is a comparison operator GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, parse the right side of the expression and create a binary expression
-        while (match(GREATER, EQUALS, LESS, NOT_EQUAL)) {
-            String operator = previous().getLiteral();
-            Ast.Expression right = parseAdditiveExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
-
-        return left;
+        return parseExpression(COMPARISON);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-        Ast.Expression left = parseMultiplicativeExpression();
+        return parseExpression(ADDITIVE);
+    }
 
-        while (match(MINUS, PLUS)) {
-            String operator = previous().getLiteral();
-            Ast.Expression right = parseMultiplicativeExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-        }
+    /**
+     * Parses the {@code multiplicative-expression} rule.
+     */
+    public Ast.Expression parseMultiplicativeExpression() throws ParseException {
+        return parseExpression(MULTIPLICATIVE);
+    }
 
-        return left;
+    /**
+     * Parses an expression whose binary operators all have at least the given
+     * {@link #PRECEDENCE precedence}, by precedence climbing. Rather than a
+     * call per rule and operand, pending operators and operands are kept on
+     * explicit stacks, and groups, arguments and indices push a {@link Frame},
+     * so nesting depth is bounded by memory rather than the call stack.
+     */
+    private Ast.Expression parseExpression(int precedence) throws ParseException {
+        ExpressionStack stack = new ExpressionStack(interner);
+        List<Frame> frames = new ArrayList<>();
+        Frame frame = new Frame(Frame.ROOT, null, 0, precedence);
+        while (true) {
+            // Parse an operand, opening a frame for anything nested
+            int kind = tokens.has(0) ? tokens.kind(0) : -1;
+            if (kind == TokenKind.LEFT_PAREN) {
+                tokens.advance();
+                frames.add(frame);
+                frame = new Frame(Frame.GROUP, null, stack.operators, LOGICAL);
+                continue;
+            } else if ((kind == TokenKind.IDENTIFIER || kind >= TokenKind.LIST && kind < TokenKind.NIL) && tokens.has(1)
+                    && (tokens.kind(1) == TokenKind.LEFT_PAREN || tokens.kind(1) == TokenKind.LEFT_BRACKET)) {
+                String name = tokens.literal(0);
+                tokens.advance();
+                if (match(TokenKind.LEFT_BRACKET)) {
+                    frames.add(frame);
+                    frame = new Frame(Frame.INDEX, name, stack.operators, LOGICAL);
+                    continue;
+                }
+                tokens.advance();
+                if (!peek(TokenKind.RIGHT_PAREN)) {
+                    frames.add(frame);
+                    frame = new Frame(Frame.CALL, name, stack.operators, LOGICAL);
+                    continue;
+                }
+                tokens.advance();
+                stack.push(new Ast.Expression.Function(name, new ArrayList<>()));
+            } else {
+                stack.push(parsePrimaryExpression());
+            }
 
+            // Apply binary operators, closing frames at the end of their expression
+            while (true) {
+                int binding = tokens.has(0) ? PRECEDENCE[tokens.kind(0)] : 0;
+                if (binding != 0 && binding >= frame.precedence) {
+                    stack.reduce(frame.operators, binding);
+                    stack.push(tokens.literal(0), binding);
+                    tokens.advance();
+                    break;
+                }
+                stack.reduce(frame.operators, LOGICAL);
+                Ast.Expression expression = stack.pop();
+                if (frame.type == Frame.ROOT) {
+                    return expression;
+                } else if (frame.type == Frame.CALL) {
+                    frame.arguments.add(expression);
+                    if (match(TokenKind.COMMA)) {
+                        break;
+                    }
+                    if (!match(TokenKind.RIGHT_PAREN))
+                        throw new ParseException("Expect ')' after arguments.", tokens.index(-1));
+                    stack.push(new Ast.Expression.Function(frame.name, frame.arguments));
+                } else if (frame.type == Frame.INDEX) {
+                    if (!match(TokenKind.RIGHT_BRACKET))
+                        throw new ParseException("Expect ']' after index.", tokens.index(-1));
+                    stack.push(new Ast.Expression.Access(Optional.of(expression), frame.name));
+                } else {
+                    if (!match(TokenKind.RIGHT_PAREN))
+                        throw new ParseException("Expect ')' after expression.", tokens.index(-1));
+                    stack.push(intern(new Ast.Expression.Group(expression)));
+                }
+                frame = frames.remove(frames.size() - 1);
+            }
+        }
     }
 
     /**
-     * Parses the {@code multiplicative-expression} rule.
+     * The operands and pending binary operators of {@link #parseExpression(int)},
+     * in growable arrays.
      */
-    public Ast.Expression parseMultiplicativeExpression() throws ParseException {
+    private static final class ExpressionStack {
 
-        Ast.Expression left = parsePrimaryExpression();
+        private final AstInterner interner;
+        private Ast.Expression[] operandStack = new Ast.Expression[8];
+        private String[] operatorStack = new String[8];
+        private int[] bindings = new int[8]; // precedence of each pending operator
+        private int operands = 0;
+        private int operators = 0;
 
-        while (match(SLASH, STAR)) {
-            String operator = previous().getLiteral();
-            Ast.Expression right = parsePrimaryExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
+        private ExpressionStack(AstInterner interner) {
+            this.interner = interner;
         }
 
-        return left;
+        private void push(Ast.Expression operand) {
+            if (operands == operandStack.length) {
+                operandStack = Arrays.copyOf(operandStack, operands * 2);
+            }
+            operandStack[operands++] = operand;
+        }
+
+        private Ast.Expression pop() {
+            Ast.Expression operand = operandStack[--operands];
+            operandStack[operands] = null;
+            return operand;
+        }
+
+        private void push(String operator, int binding) {
+            if (operators == operatorStack.length) {
+                operatorStack = Arrays.copyOf(operatorStack, operators * 2);
+                bindings = Arrays.copyOf(bindings, operators * 2);
+            }
+            operatorStack[operators] = operator;
+            bindings[operators++] = binding;
+        }
+
+        /**
+         * Combines pending operators above {@code base} that bind at least as
+         * tightly as {@code precedence} with their operands, which makes
+         * binary expressions left associative.
+         */
+        private void reduce(int base, int precedence) {
+            while (operators > base && bindings[operators - 1] >= precedence) {
+                Ast.Expression right = pop();
+                Ast.Expression left = pop();
+                Ast.Expression binary = new Ast.Expression.Binary(operatorStack[--operators], left, right);
+                push(interner == null ? binary : interner.intern(binary));
+            }
+        }
 
     }
 
+    /**
+     * An expression being parsed by {@link #parseExpression(int)}: the whole
+     * expression, or one nested in a group, argument list or index.
+     */
+    private static final class Frame {
+
+        private static final int ROOT = 0;
+        private static final int GROUP = 1;
+        private static final int CALL = 2;
+        private static final int INDEX = 3;
+
+        private final int type;
+        private final String name; // of the function or list, for CALL and INDEX
+        private final List<Ast.Expression> arguments;
+        private final int operators; // operators pending outside this frame
+        private final int precedence;
+
+        private Frame(int type, String name, int operators, int precedence) {
+            this.type = type;
+            this.name = name;
+            this.arguments = type == CALL ? new ArrayList<>() : null;
+            this.operators = operators;
+            this.precedence = precedence;
+        }
+
+    }
 
     /**
      * Parses the {@code primary-expression} rule. This is the top-level rule
@@ -514,37 +1036,36 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expression parsePrimaryExpression() throws ParseException {
-        if (match(NIL)) return new Ast.Expression.Literal(null);
-        if (match(TRUE)) return new Ast.Expression.Literal(Boolean.TRUE);
-        if (match(FALSE)) return new Ast.Expression.Literal(Boolean.FALSE);
-        String literal = tokens.get(0).getLiteral();
-        if (match(Token.Type.INTEGER)) return new Ast.Expression.Literal(new BigInteger(literal));
-        if (match(Token.Type.DECIMAL)) return new Ast.Expression.Literal(new BigDecimal(literal));
-        if (match(Token.Type.CHARACTER)) return new Ast.Expression.Literal(literal.charAt(1));
-        //TODO parse the string literal with escape characters into unescaped string
-        if (match(Token.Type.STRING))
-            return new Ast.Expression.Literal(unescapeString(literal.substring(1, literal.length() - 1)));//TODO what about escaped characters?
-
-        if (match(LEFT_PAREN)) {
+        if (match(TokenKind.NIL)) return intern(new Ast.Expression.Literal(null));
+        if (match(TokenKind.TRUE)) return intern(new Ast.Expression.Literal(Boolean.TRUE));
+        if (match(TokenKind.FALSE)) return intern(new Ast.Expression.Literal(Boolean.FALSE));
+        if (peek(Token.Type.INTEGER) || peek(Token.Type.DECIMAL) || peek(Token.Type.CHARACTER) || peek(Token.Type.STRING)) {
+            Object value = tokens.value(0); // Decoded by the lexer
+            tokens.advance();
+            return intern(new Ast.Expression.Literal(value instanceof Long ? BigInteger.valueOf((Long) value) : value));
+        }
+
+        if (match(TokenKind.LEFT_PAREN)) {
             Ast.Expression expr = parseExpression();
-            if (!match(RIGHT_PAREN))
-                throw new ParseException("Expect ')' after expression.", previous().getIndex());
+            if (!match(TokenKind.RIGHT_PAREN))
+                throw new ParseException("Expect ')' after expression.", tokens.index(-1));
             //consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Ast.Expression.Group(expr);
+            return intern(new Ast.Expression.Group(expr));
         }
 
         if (match(Token.Type.IDENTIFIER)) {
-            if (match(LEFT_PAREN)) {
+            String literal = tokens.literal(-1);
+            if (match(TokenKind.LEFT_PAREN)) {
                 List<Ast.Expression> arguments = parseArguments();
-                if (!match(RIGHT_PAREN))
-                    throw new ParseException("Expect ')' after arguments.", previous().getIndex());
+                if (!match(TokenKind.RIGHT_PAREN))
+                    throw new ParseException("Expect ')' after arguments.", tokens.index(-1));
                 //consume(RIGHT_PAREN, "Expect ')' after arguments.");
                 return new Ast.Expression.Function(literal, arguments);
             }
-            if (match(LEFT_BRACKET)) {
+            if (match(TokenKind.LEFT_BRACKET)) {
                 Ast.Expression index = parseExpression();
-                if (!match(RIGHT_BRACKET))
-                    throw new ParseException("Expect ']' after index.", previous().getIndex());
+                if (!match(TokenKind.RIGHT_BRACKET))
+                    throw new ParseException("Expect ']' after index.", tokens.index(-1));
                 //consume(RIGHT_BRACKET, "Expect ']' after index.");
                 return new Ast.Expression.Access(Optional.ofNullable(index), literal);
             }
@@ -552,136 +1073,195 @@ public final class Parser {
             //throw new UnsupportedOperationException("Variable expressions are not yet supported.");
             return new Ast.Expression.Access(Optional.empty(), literal);
         }
-        throw new ParseException("Parse exception", tokens.get(0).getIndex()); //TODO
-    }
-
-    private String unescapeString(String s) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\') {
-                i++;
-                c = s.charAt(i);
-                switch (c) {
-                    case 'n':
-                        sb.append('\n');
-                        break;
-                    case 't':
-                        sb.append('\t');
-                        break;
-                    case 'r':
-                        sb.append('\r');
-                        break;
-                    case 'b':
-                        sb.append('\b');
-                        break;
-                    case '\'':
-                        sb.append('\'');
-                        break;
-                    case '\"':
-                        sb.append('\"');
-                        break;
-                    case '\\':
-                        sb.append('\\');
-                        break;
-                    default:
-                        throw new ParseException("Invalid escape character: \\" + c, i);
-                }
-            } else {
-                sb.append(c);
-            }
-        }
-        return sb.toString();
+        throw new ParseException("Parse exception", tokens.index(0)); //TODO
     }
 
-    private Token previous() {
-        return tokens.get(-1);
+    /**
+     * Returns the shared node for {@code ast} if interning, or {@code ast}.
+     */
+    private Ast.Expression intern(Ast.Expression ast) {
+        return interner == null ? ast : interner.intern(ast);
     }
 
     private List<Ast.Expression> parseArguments() throws ParseException {
         List<Ast.Expression> arguments = new ArrayList<>();
 
-        if (peek(RIGHT_PAREN))
+        if (peek(TokenKind.RIGHT_PAREN))
             return arguments;
 
         arguments.add(parseExpression());
 
-        while (match(COMMA)) {
+        while (match(TokenKind.COMMA)) {
             arguments.add(parseExpression());
         }
         //TODO should this be here or in the calling function?
-        /*if(!peek(RIGHT_PAREN))
-            throw new ParseException("Expect ')' after arguments.", tokens.get(-1).getIndex());*/
+        /*if(!peek(TokenKind.RIGHT_PAREN))
+            throw new ParseException("Expect ')' after arguments.", tokens.index(-1));*/
         return arguments;
     }
 
     /**
-     * As in the lexer, returns {@code true} if the current sequence of tokens
-     * matches the given patterns. Unlike the lexer, the pattern is not a regex;
-     * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
-     * <p>
-     * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
-     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     * As in the lexer, returns {@code true} if the next token is of the given
+     * {@link TokenKind}. Keywords and operators have kinds of their own, so
+     * this never compares literals.
      */
-    private boolean peek(Object... patterns) {
-        if (!tokens.has(0)) {
-            return false;
-        }
-        Token token = tokens.get(0);
-        for (int i = 0; i < patterns.length; i++) {
-            // Check if the next token matches the pattern
-            if (matchToken(token, patterns[i])) {
-                return true;
-            }
-        }
-        return false;
+    private boolean peek(int kind) {
+        return tokens.has(0) && tokens.kind(0) == kind;
     }
 
-    private boolean matchToken(Token token, Object tokenPattern) {
-        if (tokenPattern instanceof String)
-            return ((String) tokenPattern).equals(token.getLiteral());
-        if (tokenPattern instanceof Token.Type)
-            return ((Token.Type) tokenPattern).equals(token.getType());
-        //if pattern is not a String and not a token type(ambiguous wording in the comment for this function description), then it must be a Token, compare to see if their types are equal
-        return ((Token) tokenPattern).getType().equals(token.getType());
+    /**
+     * Returns {@code true} if the next token has the given type. Keywords are
+     * identifiers too, so {@code peek(Token.Type.IDENTIFIER)} matches them.
+     */
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.type(0) == type;
     }
 
     /**
-     * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
-     * and advances the token stream.
+     * As in the lexer, returns {@code true} if {@link #peek(int)} is true and
+     * advances the token stream.
      */
-    private boolean match(Object... patterns) {
-        boolean peek = peek(patterns);
+    private boolean match(int kind) {
+        boolean peek = peek(kind);
+        if (peek)
+            tokens.advance();
+        return peek;
+    }
+
+    private boolean match(Token.Type type) {
+        boolean peek = peek(type);
         if (peek)
             tokens.advance();
         return peek;
     }
 
-    private static final class TokenStream {
+    /**
+     * A parsed {@link Ast.Source} along with its tokens and the range of
+     * tokens of each declaration, globals first, for {@link #reparse}.
+     */
+    public static final class Snapshot {
 
+        private final Ast.Source source;
         private final List<Token> tokens;
-        private int index = 0;
+        private final int[] bounds; // start and end token of each declaration
 
-        private TokenStream(List<Token> tokens) {
+        private Snapshot(Ast.Source source, List<Token> tokens, List<Integer> bounds) {
+            this.source = source;
             this.tokens = tokens;
+            this.bounds = new int[bounds.size()];
+            for (int i = 0; i < this.bounds.length; i++) {
+                this.bounds[i] = bounds.get(i);
+            }
+        }
+
+        public Ast.Source getSource() {
+            return source;
+        }
+
+        public List<Token> getTokens() {
+            return tokens;
         }
 
         /**
-         * Returns true if there is a token at index + offset.
+         * Returns the input index of the first char of declaration {@code i}.
          */
-        public boolean has(int offset) {
-            return index + offset < tokens.size();
+        private int start(int i) {
+            return tokens.get(bounds[2 * i]).getIndex();
         }
 
         /**
-         * Gets the token at index + offset.
+         * Returns the input index one past the last char of declaration
+         * {@code i}.
          */
-        public Token get(int offset) {
-            return tokens.get(index + offset);
+        private int end(int i) {
+            Token token = tokens.get(bounds[2 * i + 1] - 1);
+            return token.getIndex() + token.getLiteral().length();
+        }
+
+    }
+
+    /**
+     * The statements of a skimmed function body, parsed from the body's range
+     * of tokens on first access. Parsing is thread safe and happens once,
+     * unless it throws, in which case the next access tries again. Bodies
+     * parsed at once on different threads share the buffer, whose literal
+     * caches are safe to fill concurrently.
+     */
+    private static final class SkimmedBlock extends AbstractList<Ast.Statement> {
+
+        private final TokenBuffer buffer;
+        private final int start;
+        private final int end;
+        private volatile List<Ast.Statement> statements;
+
+        private SkimmedBlock(TokenBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        private List<Ast.Statement> statements() throws ParseException {
+            List<Ast.Statement> statements = this.statements;
+            if (statements == null) {
+                synchronized (this) {
+                    statements = this.statements;
+                    if (statements == null) {
+                        Parser parser = new Parser(new BufferTokenStream(buffer, start, end));
+                        statements = new ArrayList<>();
+                        while (parser.tokens.has(0)) {
+                            statements.add(parser.parseStatement());
+                        }
+                        this.statements = statements;
+                    }
+                }
+            }
+            return statements;
+        }
+
+        @Override
+        public Ast.Statement get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
         }
 
+    }
+
+    /**
+     * The tokens being parsed, read either directly from a {@link TokenBuffer}
+     * or pulled on demand from an iterator.
+     */
+    private abstract static class TokenStream {
+
+        protected int index = 0;
+
+        /**
+         * Returns true if there is a token at index + offset.
+         */
+        public abstract boolean has(int offset);
+
+        public abstract Token.Type type(int offset);
+
+        public abstract String literal(int offset);
+
+        /**
+         * Returns the value of the literal token at index + offset.
+         */
+        public abstract Object value(int offset);
+
+        /**
+         * Returns the {@link TokenKind} of the token at index + offset.
+         */
+        public abstract int kind(int offset);
+
+        /**
+         * Returns the position of the token at index + offset in the input.
+         */
+        public abstract int index(int offset);
+
         /**
          * Advances to the next token, incrementing the index.
          */
@@ -689,6 +1269,145 @@ public final class Parser {
             index++;
         }
 
+        /**
+         * Returns the error for reading past the last token, at the end of
+         * the input given the position and length of its last token.
+         */
+        protected static ParseException endOfInput(int index, int length) {
+            return new ParseException("Unexpected end of input.", index + length);
+        }
+
+    }
+
+    /**
+     * Reads tokens in place from a {@link TokenBuffer}, building literals only
+     * when the parser needs them.
+     */
+    private static final class BufferTokenStream extends TokenStream {
+
+        private final TokenBuffer buffer;
+        private final int end;
+
+        /**
+         * Creates a stream over the tokens of {@code buffer} from {@code start}
+         * up to {@code end}.
+         */
+        private BufferTokenStream(TokenBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.index = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset < end;
+        }
+
+        @Override
+        public Token.Type type(int offset) {
+            return buffer.getType(position(offset));
+        }
+
+        @Override
+        public String literal(int offset) {
+            return buffer.getLiteral(position(offset));
+        }
+
+        @Override
+        public Object value(int offset) {
+            return buffer.getValue(position(offset));
+        }
+
+        @Override
+        public int kind(int offset) {
+            return buffer.getKind(position(offset));
+        }
+
+        @Override
+        public int index(int offset) {
+            return buffer.getIndex(position(offset));
+        }
+
+        private int position(int offset) {
+            int position = index + offset;
+            if (position >= end) {
+                throw end > 0 ? endOfInput(buffer.getIndex(end - 1), buffer.getLength(end - 1)) : endOfInput(0, 0);
+            }
+            return position;
+        }
+
+    }
+
+    /**
+     * Pulls tokens from an iterator on demand, keeping only a small window of
+     * the previous token and any lookahead in memory.
+     */
+    private static final class IteratorTokenStream extends TokenStream {
+
+        private final Iterator<Token> source;
+        private Token[] window = new Token[4]; // ring buffer indexed by absolute position
+        private int loaded = 0; // number of tokens pulled from the source
+
+        private IteratorTokenStream(Iterator<Token> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            while (loaded <= index + offset && source.hasNext()) {
+                if (loaded - index + 1 >= window.length) {
+                    grow();
+                }
+                window[loaded % window.length] = source.next();
+                loaded++;
+            }
+            return index + offset < loaded;
+        }
+
+        @Override
+        public Token.Type type(int offset) {
+            return get(offset).getType();
+        }
+
+        @Override
+        public String literal(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        @Override
+        public Object value(int offset) {
+            return get(offset).getValue();
+        }
+
+        @Override
+        public int kind(int offset) {
+            return get(offset).getKind();
+        }
+
+        @Override
+        public int index(int offset) {
+            return get(offset).getIndex();
+        }
+
+        private Token get(int offset) {
+            int position = index + offset;
+            if (offset < -1 || position < 0) {
+                throw new IndexOutOfBoundsException("Index: " + position);
+            } else if (!has(offset)) {
+                Token last = loaded > 0 ? window[(loaded - 1) % window.length] : null;
+                throw last != null ? endOfInput(last.getIndex(), last.getLiteral().length()) : endOfInput(0, 0);
+            }
+            return window[position % window.length];
+        }
+
+        private void grow() {
+            Token[] grown = new Token[window.length * 2];
+            for (int i = Math.max(index - 1, 0); i < loaded; i++) {
+                grown[i % grown.length] = window[i % window.length];
+            }
+            window = grown;
+        }
+
     }
 
-}
\ No newline at end of file
+}
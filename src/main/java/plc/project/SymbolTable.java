@@ -0,0 +1,111 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Interns identifier and operator literals straight from the lexer's input, so
+ * repeated names share one {@link String} and a lookup that hits allocates
+ * nothing. Tables are per lexer and not thread safe.
+ */
+final class SymbolTable {
+
+    private String[] table = new String[256];
+    private int size = 0;
+
+    /**
+     * Returns the interned string for {@code chars[start, start + length)}.
+     */
+    String intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            String symbol = table[slot];
+            if (symbol == null) {
+                return insert(slot, new String(chars, start, length));
+            } else if (symbol.hashCode() == hash && matches(symbol, chars, start, length)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * Returns the interned string for the UTF-8 bytes at
+     * {@code [start, start + length)}.
+     */
+    String intern(ByteBuffer bytes, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = bytes.get(i);
+            if (b < 0) {
+                // Multi-byte characters only occur in catch-all operators
+                byte[] utf8 = new byte[length];
+                bytes.get(start, utf8);
+                return new String(utf8, StandardCharsets.UTF_8);
+            }
+            hash = 31 * hash + b;
+        }
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            String symbol = table[slot];
+            if (symbol == null) {
+                byte[] ascii = new byte[length];
+                bytes.get(start, ascii);
+                return insert(slot, new String(ascii, StandardCharsets.ISO_8859_1));
+            } else if (symbol.hashCode() == hash && matches(symbol, bytes, start, length)) {
+                return symbol;
+            }
+        }
+    }
+
+    private String insert(int slot, String symbol) {
+        table[slot] = symbol;
+        if (++size * 2 > table.length) {
+            String[] old = table;
+            table = new String[old.length * 2];
+            int mask = table.length - 1;
+            for (String s : old) {
+                if (s != null) {
+                    int i = mix(s.hashCode()) & mask;
+                    while (table[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = s;
+                }
+            }
+        }
+        return symbol;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String symbol, ByteBuffer bytes, int start, int length) {
+        if (symbol.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != bytes.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,5 +1,8 @@
 package plc.project;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public final class Token {
 
     public enum Type {
@@ -12,13 +15,40 @@ public final class Token {
     }
 
     private final Type type;
-    private final String literal;
     private final int index;
+    private final ByteBuffer source;
+    private final int length;
+    private String literal;
+    private Object value;
+    private int kind = -1;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, index, null);
+    }
+
+    /**
+     * Creates a token whose value has already been decoded by the lexer, or
+     * is {@code null} to be decoded from the literal on first use.
+     */
+    Token(Type type, String literal, int index, Object value) {
         this.type = type;
         this.literal = literal;
         this.index = index;
+        this.source = null;
+        this.length = literal.length();
+        this.value = value;
+    }
+
+    /**
+     * Creates a token referring to {@code length} bytes of UTF-8 at
+     * {@code index} in {@code source}. The literal is decoded on first use.
+     */
+    Token(Type type, ByteBuffer source, int index, int length, Object value) {
+        this.type = type;
+        this.index = index;
+        this.source = source;
+        this.length = length;
+        this.value = value;
     }
 
     public Type getType() {
@@ -26,6 +56,11 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal == null) {
+            byte[] bytes = new byte[length];
+            source.get(index, bytes);
+            literal = new String(bytes, StandardCharsets.UTF_8);
+        }
         return literal;
     }
 
@@ -33,17 +68,48 @@ public final class Token {
         return index;
     }
 
+    /**
+     * Returns the value of a literal token: a {@link Long}, or a
+     * {@link java.math.BigInteger} if too large, for integers, a
+     * {@link java.math.BigDecimal} for decimals, a {@link Character} for
+     * characters and the unescaped contents of strings. Values are usually
+     * decoded by the lexer, and are otherwise decoded from the literal here.
+     */
+    public Object getValue() {
+        if (value == null) {
+            value = Lexer.value(type, getLiteral());
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value decoded so far, without decoding it from the literal.
+     */
+    Object cachedValue() {
+        return value;
+    }
+
+    /**
+     * Returns the {@link TokenKind} of this token, classifying it on first use.
+     */
+    int getKind() {
+        if (kind == -1) {
+            kind = TokenKind.of(type, getLiteral());
+        }
+        return kind;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
     }
 
 }
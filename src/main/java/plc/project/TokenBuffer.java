@@ -0,0 +1,192 @@
+package plc.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact token list storing the type, start index and length of each token
+ * in parallel primitive arrays. Literals are built from the lexer's input only
+ * when requested, and cached from then on.
+ * <p>
+ * Once built, a buffer may be read from several threads at once, such as by
+ * parallel and skimmed parsers. The cache arrays are allocated along with
+ * the buffer and never replaced afterwards, and each slot only ever holds an
+ * immutable literal or value, so two threads filling the same slot at once
+ * only decode it twice.
+ * <p>
+ * Buffers are produced by {@link Lexer#lexBuffer()} and read directly by the
+ * {@link Parser}; {@link #of(List)} adapts an existing token list.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final char[] chars;
+    private final int charOffset;
+    private final ByteBuffer bytes;
+    private byte[] types = new byte[16];
+    private byte[] kinds = new byte[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private String[] literals = new String[16];
+    private Object[] values = new Object[16];
+    private int size = 0;
+
+    /**
+     * Creates a buffer whose literals are taken from {@code chars}, where the
+     * token starting at index {@code i} begins at {@code chars[i - charOffset]}.
+     */
+    TokenBuffer(char[] chars, int charOffset) {
+        this.chars = chars;
+        this.charOffset = charOffset;
+        this.bytes = null;
+    }
+
+    /**
+     * Creates a buffer whose literals are decoded from UTF-8 {@code bytes},
+     * with token indices being byte offsets.
+     */
+    TokenBuffer(ByteBuffer bytes) {
+        this.chars = null;
+        this.charOffset = 0;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Creates a buffer holding the given tokens, with their literals retained.
+     */
+    public static TokenBuffer of(List<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer(null, 0);
+        for (Token token : tokens) {
+            buffer.add(token);
+        }
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type getType(int i) {
+        return TYPES[types[check(i)]];
+    }
+
+    public int getIndex(int i) {
+        return starts[check(i)];
+    }
+
+    public int getLength(int i) {
+        return lengths[check(i)];
+    }
+
+    /**
+     * Returns the {@link TokenKind} of the token at {@code i}.
+     */
+    int getKind(int i) {
+        return kinds[check(i)];
+    }
+
+    public String getLiteral(int i) {
+        check(i);
+        String literal = literals[i];
+        if (literal == null) {
+            literal = decode(starts[i], lengths[i]);
+            literals[i] = literal;
+        }
+        return literal;
+    }
+
+    /**
+     * Returns the value of the literal token at {@code i}, as described by
+     * {@link Token#getValue()}.
+     */
+    public Object getValue(int i) {
+        check(i);
+        Object value = values[i];
+        if (value == null) {
+            value = Lexer.value(getType(i), getLiteral(i));
+            values[i] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the token at {@code i} as a {@link Token} object.
+     */
+    public Token get(int i) {
+        return new Token(getType(i), getLiteral(i), getIndex(i), values[i]);
+    }
+
+    public List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(get(i));
+        }
+        return tokens;
+    }
+
+    /**
+     * Appends a token. The literal may be given when it is already at hand,
+     * such as an interned identifier, and is otherwise built on request, and
+     * likewise for the value of literal tokens.
+     */
+    void add(Token.Type type, int start, int length, String literal, Object value) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        if (literal != null) {
+            literals[size] = literal;
+            kinds[size] = (byte) TokenKind.of(type, literal);
+        } else {
+            kinds[size] = (byte) TokenKind.of(type, "");
+        }
+        values[size] = value;
+        size++;
+    }
+
+    void add(Token token) {
+        String literal = token.getLiteral();
+        add(token.getType(), token.getIndex(), literal.length(), literal, token.cachedValue());
+    }
+
+    private String decode(int start, int length) {
+        if (chars != null) {
+            return new String(chars, start - charOffset, length);
+        }
+        byte[] utf8 = new byte[length];
+        bytes.get(start, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        literals = Arrays.copyOf(literals, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBuffer{" +
+                "size=" + size +
+                ", tokens=" + toList() +
+                '}';
+    }
+
+}
@@ -0,0 +1,142 @@
+package plc.project;
+
+/**
+ * Small integer kinds refining {@link Token.Type}. Keywords and the operators
+ * used by the grammar each get a kind of their own, so the parser can switch on
+ * an int instead of comparing literals; every other token gets the kind of its
+ * type.
+ * <p>
+ * Keywords are found through a perfect hash on the first character, last
+ * character and length, which maps each keyword to a distinct slot.
+ */
+final class TokenKind {
+
+    static final int IDENTIFIER = 0;
+    static final int INTEGER = 1;
+    static final int DECIMAL = 2;
+    static final int CHARACTER = 3;
+    static final int STRING = 4;
+    static final int OPERATOR = 5;
+
+    static final int LIST = 6;
+    static final int VAR = 7;
+    static final int VAL = 8;
+    static final int FUN = 9;
+    static final int DO = 10;
+    static final int END = 11;
+    static final int LET = 12;
+    static final int SWITCH = 13;
+    static final int CASE = 14;
+    static final int DEFAULT = 15;
+    static final int IF = 16;
+    static final int ELSE = 17;
+    static final int WHILE = 18;
+    static final int RETURN = 19;
+    static final int NIL = 20;
+    static final int TRUE = 21;
+    static final int FALSE = 22;
+
+    static final int LEFT_PAREN = 23;
+    static final int RIGHT_PAREN = 24;
+    static final int LEFT_BRACKET = 25;
+    static final int RIGHT_BRACKET = 26;
+    static final int SEMICOLON = 27;
+    static final int ASSIGNMENT = 28;
+    static final int COLON = 29;
+    static final int COMMA = 30;
+    static final int PLUS = 31;
+    static final int MINUS = 32;
+    static final int STAR = 33;
+    static final int SLASH = 34;
+    static final int CARET = 35;
+    static final int LESS = 36;
+    static final int GREATER = 37;
+    static final int EQUALS = 38;
+    static final int NOT_EQUAL = 39;
+    static final int AND = 40;
+    static final int OR = 41;
+
+    private static final String[] KEYWORDS = {
+            "LIST", "VAR", "VAL", "FUN", "DO", "END", "LET", "SWITCH", "CASE",
+            "DEFAULT", "IF", "ELSE", "WHILE", "RETURN", "NIL", "TRUE", "FALSE"
+    };
+    private static final String[] KEYWORD_TABLE = new String[32];
+    private static final int[] KEYWORD_KINDS = new int[32];
+
+    static {
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            int slot = hash(KEYWORDS[i]);
+            if (KEYWORD_TABLE[slot] != null) {
+                throw new AssertionError("Keyword hash collision: " + KEYWORDS[i] + ".");
+            }
+            KEYWORD_TABLE[slot] = KEYWORDS[i];
+            KEYWORD_KINDS[slot] = LIST + i;
+        }
+    }
+
+    private TokenKind() {}
+
+    /**
+     * Returns the kind of a token with the given type and literal.
+     */
+    static int of(Token.Type type, String literal) {
+        switch (type) {
+            case IDENTIFIER:
+                return keyword(literal);
+            case OPERATOR:
+                return operator(literal);
+            default:
+                return type.ordinal();
+        }
+    }
+
+    /**
+     * Returns the canonical literal of a keyword kind, or {@code null}.
+     */
+    static String keywordLiteral(int kind) {
+        return kind >= LIST && kind <= FALSE ? KEYWORDS[kind - LIST] : null;
+    }
+
+    private static int keyword(String literal) {
+        if (literal.isEmpty()) {
+            return IDENTIFIER;
+        }
+        int slot = hash(literal);
+        return literal.equals(KEYWORD_TABLE[slot]) ? KEYWORD_KINDS[slot] : IDENTIFIER;
+    }
+
+    private static int hash(String literal) {
+        return (literal.charAt(0) * 17 + literal.charAt(literal.length() - 1) * 2 + literal.length()) & 31;
+    }
+
+    private static int operator(String literal) {
+        if (literal.length() == 1) {
+            switch (literal.charAt(0)) {
+                case '(': return LEFT_PAREN;
+                case ')': return RIGHT_PAREN;
+                case '[': return LEFT_BRACKET;
+                case ']': return RIGHT_BRACKET;
+                case ';': return SEMICOLON;
+                case '=': return ASSIGNMENT;
+                case ':': return COLON;
+                case ',': return COMMA;
+                case '+': return PLUS;
+                case '-': return MINUS;
+                case '*': return STAR;
+                case '/': return SLASH;
+                case '^': return CARET;
+                case '<': return LESS;
+                case '>': return GREATER;
+                default: return OPERATOR;
+            }
+        }
+        switch (literal) {
+            case "==": return EQUALS;
+            case "!=": return NOT_EQUAL;
+            case "&&": return AND;
+            case "||": return OR;
+            default: return OPERATOR;
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -8,8 +9,14 @@ import org.junit.jupiter.params.provider.MethodSource;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -527,6 +534,81 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    public void testAnnotations() throws Exception {
+        String input = "VAR x: Integer = 1;\nFUN main(): Integer DO print(x + 2); RETURN x; END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Annotations>> analyses = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                analyses.add(executor.submit(() -> {
+                    Analyzer analyzer = new Analyzer(new Scope(null), new Annotations());
+                    analyzer.visit(ast);
+                    return analyzer.getAnnotations();
+                }));
+            }
+            for (Future<Annotations> analysis : analyses) {
+                Annotations annotations = analysis.get();
+                Ast.Statement.Expression print = (Ast.Statement.Expression) ast.getFunctions().get(0).getStatements().get(0);
+                Ast.Expression argument = ((Ast.Expression.Function) print.getExpression()).getArguments().get(0);
+                Assertions.assertEquals(Environment.Type.INTEGER, annotations.getType(argument));
+                Assertions.assertEquals("x", annotations.getVariable(ast.getGlobals().get(0)).getName());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), ast);
+    }
+
+    @Test
+    public void testImage() {
+        String input = "VAR x: Integer = 1;\nFUN main(): Integer DO LET y = 2.5; print(x + 2); print(\"x\" + y); RETURN x; END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Annotations analyzed = new Annotations();
+        new Analyzer(new Scope(null), analyzed).visit(ast);
+        Ast.Source image = AstImage.read(ByteBuffer.wrap(AstImage.write(ast)));
+        Assertions.assertEquals(ast, image);
+
+        Annotations annotations = new Annotations();
+        image = AstImage.read(ByteBuffer.wrap(AstImage.write(ast, analyzed)), annotations);
+        Ast.Statement.Return statement = (Ast.Statement.Return) image.getFunctions().get(0).getStatements().get(3);
+        Assertions.assertSame(annotations.getVariable(image.getGlobals().get(0)), annotations.getVariable(statement.getValue()));
+        Assertions.assertEquals(Environment.Type.INTEGER, annotations.getType(statement.getValue()));
+    }
+
+    @Test
+    public void testLexicalAddresses() {
+        String input = "VAR x: Integer = 1;\nFUN f(a: Integer): Integer DO LET b: Integer = a; IF TRUE DO print(b); ELSE LET c: Integer = x; END RETURN b; END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Annotations annotations = new Annotations();
+        new Analyzer(new Scope(null), annotations).visit(ast);
+        Assertions.assertEquals(1, annotations.getFrameSize(ast));
+        Assertions.assertEquals(new Environment.Address(0, 0), annotations.getAddress(ast.getGlobals().get(0)));
+
+        Ast.Function function = ast.getFunctions().get(0);
+        Assertions.assertEquals(3, annotations.getFrameSize(function));
+        Ast.Statement.Declaration b = (Ast.Statement.Declaration) function.getStatements().get(0);
+        Assertions.assertEquals(new Environment.Address(0, 1), annotations.getAddress(b));
+        Assertions.assertEquals(new Environment.Address(0, 0), annotations.getAddress(b.getValue().get()));
+        Ast.Statement.Declaration c = (Ast.Statement.Declaration) ((Ast.Statement.If) function.getStatements().get(1)).getElseStatements().get(0);
+        Assertions.assertEquals(new Environment.Address(0, 2), annotations.getAddress(c));
+        Assertions.assertEquals(new Environment.Address(1, 0), annotations.getAddress(c.getValue().get()));
+    }
+
+    @Test
+    public void testFrameSlotReuse() {
+        String input = "FUN f(a: Integer, more: Boolean): Integer DO IF more DO LET b: Integer = a; RETURN b; ELSE LET c: Integer = a; RETURN c; END END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Annotations annotations = new Annotations();
+        new Analyzer(new Scope(null), annotations).visit(ast);
+        Ast.Function function = ast.getFunctions().get(0);
+        Assertions.assertEquals(3, annotations.getFrameSize(function));
+        Ast.Statement.If statement = (Ast.Statement.If) function.getStatements().get(0);
+        Assertions.assertEquals(new Environment.Address(0, 2), annotations.getAddress(statement.getThenStatements().get(0)));
+        Assertions.assertEquals(new Environment.Address(0, 2), annotations.getAddress(statement.getElseStatements().get(0)));
+    }
+
     /**
      * Helper function for tests. If {@param expected} is {@code null}, analysis
      * is expected to throw a {@link RuntimeException}.
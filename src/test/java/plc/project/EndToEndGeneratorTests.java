@@ -3,14 +3,19 @@ package plc.project;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Tags;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -184,6 +189,33 @@ public class EndToEndGeneratorTests {
         );
     }
 
+    @Test
+    void testCompilationCache(@TempDir Path directory) throws IOException {
+        String input = "VAR x: Integer = 1;\nFUN main(): Integer DO print(x); RETURN 0; END";
+        CompilationCache cache = new CompilationCache(directory, 1 << 20);
+        String code = cache.generate(input);
+        Assertions.assertEquals(code, cache.generate(input));
+        Assertions.assertEquals(cache.analyze(input, new Annotations()), cache.analyze(input, new Annotations()));
+        Assertions.assertEquals(2, cache.getHits());
+        Assertions.assertEquals(2, cache.getMisses());
+
+        Annotations annotations = new Annotations();
+        Ast.Source ast = cache.analyze(input, annotations);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer), annotations).visit(ast);
+        Assertions.assertEquals(code, writer.toString());
+
+        // An entry naming an unknown type is compiled again and replaced
+        Path image = directory.resolve(CompilationCache.key(input) + ".image");
+        byte[] bytes = Files.readAllBytes(image);
+        bytes[new String(bytes, StandardCharsets.ISO_8859_1).indexOf("Integer") + 6] = 'x';
+        Files.write(image, bytes);
+        Assertions.assertEquals(ast, cache.analyze(input, new Annotations()));
+        Assertions.assertEquals(3, cache.getMisses());
+        Assertions.assertEquals(ast, cache.analyze(input, new Annotations()));
+        Assertions.assertEquals(4, cache.getHits());
+    }
+
     /**
      * Helper function for tests, using a StringWriter as the output stream.
      */
@@ -214,6 +214,76 @@ final class EndToEndInterpreterTests {
         Assertions.assertEquals(BigInteger.TEN, scope.lookupVariable("num").getValue().getValue());
     }
 
+    @Test
+    void testFlatInterpreter() {
+        String input = "LIST list: Integer = [1, 2, 3];\n"
+                + "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END\n"
+                + "FUN main(): Integer DO\n"
+                + "    list[1] = 7; print(list);\n"
+                + "    LET i = 0; WHILE i < 3 DO print(list[i]); i = i + 1; END\n"
+                + "    SWITCH i CASE 3: print(\"three\"); DEFAULT print(\"other\"); END\n"
+                + "    RETURN fib(10);\n"
+                + "END";
+
+        PrintStream sysout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Object expected = new Interpreter(new Scope(null)).visit(new Parser(new Lexer(input).lex()).parseSource()).getValue();
+            String output = out.toString();
+            out.reset();
+            FlatAst flat = FlatAst.lower(new Parser(new Lexer(input).lex()).parseSource());
+            Assertions.assertEquals(expected, new FlatInterpreter(new Scope(null)).evaluate(flat).getValue());
+            Assertions.assertEquals(output, out.toString());
+        } finally {
+            System.setOut(sysout);
+        }
+    }
+
+    @Test
+    void testLexicalAddresses() {
+        String input = "VAR total: Integer = 0;\n"
+                + "FUN add(n: Integer): Integer DO total = total + n; RETURN total; END\n"
+                + "FUN main(): Integer DO\n"
+                + "    LET go: Boolean = TRUE; LET i: Integer = 1;\n"
+                + "    WHILE go DO LET next: Integer = add(i); i = next; go = FALSE; END\n"
+                + "    IF go DO print(0); ELSE LET sum: Integer = i + total; print(sum); END\n"
+                + "    RETURN total;\n"
+                + "END";
+
+        PrintStream sysout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Object expected = new Interpreter(new Scope(null)).visit(new Parser(new Lexer(input).lex()).parseSource()).getValue();
+            String output = out.toString();
+            out.reset();
+            Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+            Annotations annotations = new Annotations();
+            new Analyzer(new Scope(null), annotations).visit(ast);
+            Interpreter interpreter = new Interpreter(new Scope(null), annotations);
+            Assertions.assertEquals(expected, interpreter.visit(ast).getValue());
+            Assertions.assertEquals(output, out.toString());
+            Assertions.assertEquals(BigInteger.ONE, interpreter.getScope().lookupVariable("total").getValue().getValue());
+        } finally {
+            System.setOut(sysout);
+        }
+    }
+
+    @Test
+    void testPooledFrames() {
+        String input = "FUN f(n: Integer, more: Boolean): Integer DO\n"
+                + "    LET m: Integer = n * 2;\n"
+                + "    IF more DO LET r: Integer = f(n + 1, FALSE); RETURN m + r; ELSE LET s: Integer = m; m = s + 1; END\n"
+                + "    RETURN m;\n"
+                + "END\n"
+                + "FUN main(): Integer DO RETURN f(1, TRUE) + f(1, TRUE); END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Annotations annotations = new Annotations();
+        new Analyzer(new Scope(null), annotations).visit(ast);
+        Assertions.assertEquals(BigInteger.valueOf(14), new Interpreter(new Scope(null), annotations).visit(ast).getValue());
+    }
+
     @ParameterizedTest
     @MethodSource
     void testLiteralExpression(String test, String input, Object expected) {
@@ -6,8 +6,15 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -22,6 +29,7 @@ public class LexerTests {
         return Stream.of(
                 Arguments.of("Alphabetic", "getName", true),
                 Arguments.of("Alphanumeric", "thelegend27", true),
+                Arguments.of("Leading At", "@name", true),
                 Arguments.of("Leading Hyphen", "-five", false),
                 Arguments.of("Leading Digit", "1fish2fish3fishbluefish", false)
         );
@@ -99,6 +107,7 @@ public class LexerTests {
         return Stream.of(
                 Arguments.of("Character", "(", true),
                 Arguments.of("Comparison", "!=", true),
+                Arguments.of("Logical Or", "||", true),
                 Arguments.of("Space", " ", false),
                 Arguments.of("Tab", "\t", false)
         );
@@ -136,6 +145,120 @@ public class LexerTests {
         Assertions.assertEquals(13, exception.getIndex());
     }
 
+    @Test
+    void testConfiguredOperators() {
+        Lexer lexer = new Lexer("a<=b>=c");
+        lexer.setOperators(Lexer.Operators.of("<=", ">=", "==", "!="));
+        Assertions.assertEquals(Arrays.asList(
+                new Token(Token.Type.IDENTIFIER, "a", 0),
+                new Token(Token.Type.OPERATOR, "<=", 1),
+                new Token(Token.Type.IDENTIFIER, "b", 3),
+                new Token(Token.Type.OPERATOR, ">=", 4),
+                new Token(Token.Type.IDENTIFIER, "c", 6)
+        ), lexer.lex());
+    }
+
+    @Test
+    void testStreaming() {
+        String input = "VAR name: String = \"Hello, World!\";\nFUN main() DO print(name); END";
+        List<Token> tokens = new ArrayList<>();
+        new Lexer(new StringReader(input)).tokens().forEachRemaining(tokens::add);
+        Assertions.assertEquals(new Lexer(input).lex(), tokens);
+    }
+
+    @Test
+    void testTokenBuffer() {
+        String input = "LIST list: Integer = [1, -2.5];\nFUN main() DO print('c'); END";
+        TokenBuffer buffer = new Lexer(input).lexBuffer();
+        Assertions.assertEquals(new Lexer(input).lex(), buffer.toList());
+    }
+
+    @Test
+    void testUtf8Bytes() {
+        String input = "LET c = '\u00e9'; print(\"h\u00e9llo\" + c);";
+        List<Token> expected = new Lexer(input).lex();
+        List<Token> tokens = new Lexer(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8))).lex();
+        Assertions.assertEquals(expected.size(), tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            Assertions.assertEquals(expected.get(i).getType(), tokens.get(i).getType());
+            Assertions.assertEquals(expected.get(i).getLiteral(), tokens.get(i).getLiteral());
+        }
+    }
+
+    @Test
+    void testParallel() {
+        String input = "VAL s = \"a\n;\\\"\nb\";\nLET c = '\\'';\nLET d = '\n';\nFUN main() DO print(s); END\n";
+        Assertions.assertEquals(new Lexer(input).lex(), new Lexer(input).lexParallel(4));
+        Assertions.assertEquals(new Lexer(input).lex(), new Lexer(input).lexParallel(1 << 20));
+    }
+
+    @Test
+    void testValues() {
+        String input = "1 -20 0.50 -3.25 99999999999999999999 '\\n' '\u00e9' \"a\\tb\\\"\u00e9\"";
+        List<Object> expected = Arrays.asList(1L, -20L, new BigDecimal("0.50"), new BigDecimal("-3.25"),
+                new BigInteger("99999999999999999999"), '\n', '\u00e9', "a\tb\"\u00e9");
+        List<Token> tokens = new Lexer(input).lex();
+        TokenBuffer buffer = new Lexer(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8))).lexBuffer();
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i), tokens.get(i).getValue());
+            Assertions.assertEquals(expected.get(i), buffer.getValue(i));
+            Token token = tokens.get(i);
+            Assertions.assertEquals(expected.get(i), new Token(token.getType(), token.getLiteral(), 0).getValue());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testDfaLexer(String test, String input) {
+        byte[] utf8 = input.getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals(lexOrError(() -> new Lexer(input).lex()), lexOrError(() -> new DfaLexer(input).lex()));
+        Assertions.assertEquals(lexOrError(() -> new Lexer(ByteBuffer.wrap(utf8)).lex()),
+                lexOrError(() -> new DfaLexer(ByteBuffer.wrap(utf8)).lex()));
+    }
+
+    private static Stream<Arguments> testDfaLexer() {
+        return Stream.of(
+                Arguments.of("Declaration", "VAR x: Integer = -1.5 + 0.25 * 10;"),
+                Arguments.of("Trailing Point", "1. -2. 0."),
+                Arguments.of("Hyphens", "a-b - -c -"),
+                Arguments.of("Operators", "!= == && || ! = & | ; \u00e9 \u20ac"),
+                Arguments.of("Literals", "'c' '\\'' '\u00e9' \"a\\n\\\"b\""),
+                Arguments.of("Unterminated Character", "'ab'"),
+                Arguments.of("Invalid Character Escape", "'\\q'"),
+                Arguments.of("Unterminated String", "\"abc"),
+                Arguments.of("Invalid String Escape", "\"a\\'b\""),
+                Arguments.of("Unterminated Escape", "\"a\\")
+        );
+    }
+
+    private static Object lexOrError(Supplier<List<Token>> lexer) {
+        try {
+            return lexer.get();
+        } catch (ParseException e) {
+            return e.getMessage() + "@" + e.getIndex();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String test, int offset, int removed, String inserted) {
+        String input = "VAR x: Integer = 1.;\nLET y = x != \"a b\";\nprint(y);";
+        List<Token> previous = new Lexer(input).lex();
+        String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        Assertions.assertEquals(new Lexer(edited).lex(), new Lexer(edited).relex(previous, offset, removed, inserted));
+    }
+
+    private static Stream<Arguments> testRelex() {
+        return Stream.of(
+                Arguments.of("Extend Identifier", 5, 0, "yz"),
+                Arguments.of("Complete Decimal", 19, 0, "5"),
+                Arguments.of("Split Operator", 32, 0, " "),
+                Arguments.of("Split String", 36, 0, "\" + \""),
+                Arguments.of("Remove Line", 21, 20, ""),
+                Arguments.of("Append", 50, 0, " END")
+        );
+    }
+
     /**
      * Tests that lexing the input through {@link Lexer#lexToken()} produces a
      * single token with the expected type and literal matching the input.
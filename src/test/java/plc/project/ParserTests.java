@@ -8,10 +8,14 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -268,6 +272,14 @@ final class ParserTests {
                 Arguments.of("Escape Character",
                         Arrays.asList(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"", 0)),
                         new Ast.Expression.Literal("Hello,\nWorld!")
+                ),
+                Arguments.of("Escape Character Literal",
+                        Arrays.asList(new Token(Token.Type.CHARACTER, "'\\t'", 0)),
+                        new Ast.Expression.Literal('\t')
+                ),
+                Arguments.of("Large Integer Literal",
+                        Arrays.asList(new Token(Token.Type.INTEGER, "123456789012345678901234567890", 0)),
+                        new Ast.Expression.Literal(new BigInteger("123456789012345678901234567890"))
                 )
         );
     }
@@ -503,6 +515,175 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testDeepNesting() {
+        int depth = 100_000;
+        String input = "f(".repeat(depth) + "(list[1 + 2 * 3])" + ")".repeat(depth);
+        Ast.Expression expression = new Parser(new Lexer(input).lexBuffer()).parseExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expression.Function) expression).getArguments().get(0);
+        }
+        Assertions.assertEquals(new Ast.Expression.Group(new Ast.Expression.Access(Optional.of(
+                new Ast.Expression.Binary("+",
+                        new Ast.Expression.Literal(BigInteger.ONE),
+                        new Ast.Expression.Binary("*",
+                                new Ast.Expression.Literal(new BigInteger("2")),
+                                new Ast.Expression.Literal(new BigInteger("3"))
+                        )
+                )), "list")), expression);
+    }
+
+    @Test
+    void testSkimBodies() {
+        String input = "VAR x: Integer = 1;\n"
+                + "FUN f(a) DO IF a > 1 DO RETURN a; ELSE WHILE a < 1 DO a = a + 1; END END RETURN 0; END\n"
+                + "FUN g() DO SWITCH x CASE 1: print(1); DEFAULT print(2); END END\n"
+                + "FUN main() DO f(g()); END";
+        TokenBuffer tokens = new Lexer(input).lexBuffer();
+        Parser parser = new Parser(tokens);
+        parser.setSkimBodies(true);
+        Assertions.assertEquals(new Parser(tokens).parseSource(), parser.parseSource());
+    }
+
+    @Test
+    void testSkimBodiesDefersErrors() {
+        Parser parser = new Parser(new Lexer("FUN main() DO print(; END").lexBuffer());
+        parser.setSkimBodies(true);
+        Ast.Source source = parser.parseSource();
+        Assertions.assertEquals("main", source.getFunctions().get(0).getName());
+        Assertions.assertThrows(ParseException.class, () -> source.getFunctions().get(0).getStatements().size());
+    }
+
+    @Test
+    void testParseSourceParallel() {
+        StringBuilder input = new StringBuilder("VAR x: Integer = 1;\n");
+        for (int i = 0; i < 100; i++) {
+            input.append("FUN f").append(i).append("(a) DO IF a > ").append(i)
+                    .append(" DO RETURN a; END SWITCH a DEFAULT x = x + 1; END RETURN 0; END\n");
+        }
+        TokenBuffer tokens = new Lexer(input.toString()).lexBuffer();
+        Assertions.assertEquals(new Parser(tokens).parseSource(), new Parser(tokens).parseSourceParallel());
+    }
+
+    @Test
+    void testParseSourceParallelLiterals() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            input.append("FUN f").append(i).append("() DO RETURN list(").append(i).append(", ").append(i)
+                    .append(".5, 'c', \"s").append(i).append("\", ").append(i * 7).append("); END\n");
+        }
+        Ast.Source expected = new Parser(new Lexer(input.toString()).lexBuffer()).parseSource();
+        for (int i = 0; i < 20; i++) {
+            // Values are decoded by the parser threads, since the DFA lexer leaves them to the buffer
+            Assertions.assertEquals(expected, new Parser(new DfaLexer(input.toString()).lexBuffer()).parseSourceParallel());
+        }
+    }
+
+    @Test
+    void testParseSourceParallelError() {
+        TokenBuffer tokens = new Lexer("FUN f() DO END FUN g() DO x = ; END").lexBuffer();
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(tokens).parseSourceParallel());
+        Assertions.assertEquals(30, exception.getIndex());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testReparse(String test, int offset, int removed, String inserted, int reused) {
+        String input = "VAR x: Integer = 1;\nVAL y: Integer = 2;\nFUN f() DO x = 1; END\nFUN g() DO RETURN y; END";
+        List<Token> tokens = new Lexer(input).lex();
+        Parser.Snapshot previous = Parser.parseSnapshot(tokens);
+        String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        Parser.Snapshot snapshot = Parser.reparse(previous,
+                new Lexer(edited).relex(tokens, offset, removed, inserted), offset, removed, inserted);
+        Assertions.assertEquals(new Parser(new Lexer(edited).lex()).parseSource(), snapshot.getSource());
+        List<Ast> before = new ArrayList<>(previous.getSource().getGlobals());
+        before.addAll(previous.getSource().getFunctions());
+        List<Ast> after = new ArrayList<>(snapshot.getSource().getGlobals());
+        after.addAll(snapshot.getSource().getFunctions());
+        Assertions.assertEquals(reused, (int) after.stream().filter(ast -> before.stream().anyMatch(b -> b == ast)).count());
+    }
+
+    private static Stream<Arguments> testReparse() {
+        return Stream.of(
+                Arguments.of("Edit Global", 17, 1, "3", 3),
+                Arguments.of("Edit Function", 55, 1, "5", 3),
+                Arguments.of("Insert Function", 62, 0, "FUN h() DO END\n", 3),
+                Arguments.of("Remove Global", 20, 20, "", 2),
+                Arguments.of("Split Function", 57, 0, " END FUN h() DO", 3)
+        );
+    }
+
+    @Test
+    void testReparseError() {
+        String input = "FUN f() DO END\nFUN g() DO END";
+        List<Token> tokens = new Lexer(input).lex();
+        String edited = "FUN f() DO END\nVAR x: Integer = 1;\nFUN g() DO END";
+        ParseException exception = Assertions.assertThrows(ParseException.class, () -> Parser.reparse(
+                Parser.parseSnapshot(tokens), new Lexer(edited).relex(tokens, 15, 0, "VAR x: Integer = 1;\n"),
+                15, 0, "VAR x: Integer = 1;\n"));
+        Assertions.assertEquals(15, exception.getIndex());
+    }
+
+    @Test
+    void testRecoverErrors() {
+        String input = "VAR x: Integer = ;\nVAL y: Integer = 1;\n"
+                + "FUN f() DO x = ; print(y); IF y == = DO z; END RETURN y; END\n"
+                + "FUN g( DO END\nFUN h() DO y; END\nVAR w: Integer = 1;\nFUN i() DO print(";
+        Parser parser = new Parser(new Lexer(input).lex());
+        parser.setRecoverErrors(true);
+        Ast.Source source = parser.parseSource();
+        Assertions.assertEquals(Arrays.asList(17, 54, 74, 107, 132, 169),
+                parser.getErrors().stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(Arrays.asList("y"),
+                source.getGlobals().stream().map(Ast.Global::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(Arrays.asList("f", "h"),
+                source.getFunctions().stream().map(Ast.Function::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(2, source.getFunctions().get(0).getStatements().size());
+    }
+
+    @Test
+    void testUnexpectedEndOfInput() {
+        String input = "FUN f() DO print(";
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input).lexBuffer()).parseSource());
+        Assertions.assertEquals(17, exception.getIndex());
+        exception = Assertions.assertThrows(ParseException.class, () -> new Parser(new Lexer(input).tokens()).parseSource());
+        Assertions.assertEquals(17, exception.getIndex());
+    }
+
+    @Test
+    void testFingerprint() {
+        String function = "FUN f(a) DO IF a > 1 DO RETURN g(a - 1, 2.5, \"s\"); END RETURN 'c'; END";
+        Ast.Function first = new Parser(new Lexer("VAR x: Integer = 1;\n" + function).lex()).parseSource().getFunctions().get(0);
+        Ast.Function second = new Parser(new Lexer(function + "\nFUN h() DO END").lex()).parseSource().getFunctions().get(0);
+        Ast.Function changed = new Parser(new Lexer(function.replace("a - 1", "a - 2")).lex()).parseFunction();
+        Assertions.assertEquals(first.getFingerprint(), second.getFingerprint());
+        Assertions.assertNotEquals(first.getFingerprint(), changed.getFingerprint());
+        Assertions.assertNotEquals(new Ast.Expression.Literal(BigInteger.ONE).getFingerprint(),
+                new Ast.Expression.Literal("1").getFingerprint());
+        Map<Ast, String> cache = new HashMap<>();
+        cache.put(first, "cached");
+        Assertions.assertEquals("cached", cache.get(second));
+    }
+
+    @Test
+    void testInterner() {
+        String input = "VAL a: Integer = (1 + 2) * x;\nVAL b: Integer = (1 + 2) * x;";
+        AstInterner interner = new AstInterner();
+        Parser parser = new Parser(new Lexer(input).lex());
+        parser.setInterner(interner);
+        Ast.Source source = parser.parseSource();
+        Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), source);
+        Ast.Expression.Binary first = (Ast.Expression.Binary) source.getGlobals().get(0).getValue().get();
+        Ast.Expression.Binary second = (Ast.Expression.Binary) source.getGlobals().get(1).getValue().get();
+        Assertions.assertSame(first.getLeft(), second.getLeft());
+        Assertions.assertNotSame(first.getRight(), second.getRight());
+        Assertions.assertEquals(4, interner.getNodes());
+        Assertions.assertEquals(4L, interner.getHits());
+        Assertions.assertTrue(interner.getSavedBytes() > 0);
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).